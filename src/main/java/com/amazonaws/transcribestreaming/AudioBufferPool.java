@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.transcribestreaming;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded pool of chunk buffers that audio subscriptions lease from while reading audio and return once the chunk
+ * has been turned into an AudioEvent. Buffers are grouped into power-of-two size classes, and each class keeps at
+ * most a fixed number of idle buffers, so the pool never holds more than a known amount of memory.
+ *
+ * The pool can hold heap buffers or direct (off-heap) buffers. Leases larger than the biggest size class are served
+ * with a one-off allocation and counted as a miss.
+ */
+public class AudioBufferPool {
+
+    public static final int DEFAULT_MAX_BUFFERS_PER_SIZE = 256;
+    private static final int MIN_SIZE_CLASS_SHIFT = 10; //1 KB
+    private static final int MAX_SIZE_CLASS_SHIFT = 17; //128 KB
+
+    private static final AudioBufferPool DEFAULT = new AudioBufferPool(false, DEFAULT_MAX_BUFFERS_PER_SIZE);
+
+    private final boolean direct;
+    private final int maxBuffersPerSize;
+    private final SizeClass[] sizeClasses = new SizeClass[MAX_SIZE_CLASS_SHIFT - MIN_SIZE_CLASS_SHIFT + 1];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param direct True to pool direct (off-heap) buffers, false for heap buffers
+     * @param maxBuffersPerSize Maximum number of idle buffers kept for each size class
+     */
+    public AudioBufferPool(boolean direct, int maxBuffersPerSize) {
+        if (maxBuffersPerSize < 0) {
+            throw new IllegalArgumentException("Maximum pooled buffers must not be negative");
+        }
+        this.direct = direct;
+        this.maxBuffersPerSize = maxBuffersPerSize;
+        for (int i = 0; i < sizeClasses.length; i++) {
+            sizeClasses[i] = new SizeClass();
+        }
+    }
+
+    /**
+     * @return Heap buffer pool shared by all publishers that were not given one explicitly
+     */
+    public static AudioBufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Lease a buffer able to hold at least the given number of bytes. The returned buffer's position is 0 and its
+     * limit is set to the requested size.
+     * @param size Number of bytes needed
+     * @return A cleared buffer, which should be handed back with {@link #release(ByteBuffer)}
+     */
+    public ByteBuffer lease(int size) {
+        int index = sizeClassIndex(size);
+        if (index < 0) {
+            misses.increment();
+            return allocate(size);
+        }
+        SizeClass sizeClass = sizeClasses[index];
+        ByteBuffer buffer = sizeClass.buffers.poll();
+        if (buffer == null) {
+            misses.increment();
+            buffer = allocate(1 << (index + MIN_SIZE_CLASS_SHIFT));
+        } else {
+            sizeClass.idle.decrementAndGet();
+            hits.increment();
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Return a buffer to the pool. Buffers that do not belong to a size class, or that would exceed the pool's bound,
+     * are left to the garbage collector.
+     * @param buffer Buffer previously obtained from {@link #lease(int)}
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.isDirect() != direct || buffer.isReadOnly()) {
+            return;
+        }
+        int capacity = buffer.capacity();
+        int index = sizeClassIndex(capacity);
+        if (index < 0 || (1 << (index + MIN_SIZE_CLASS_SHIFT)) != capacity) {
+            return;
+        }
+        SizeClass sizeClass = sizeClasses[index];
+        if (sizeClass.idle.incrementAndGet() > maxBuffersPerSize) {
+            sizeClass.idle.decrementAndGet();
+            return;
+        }
+        sizeClass.buffers.offer(buffer);
+    }
+
+    /**
+     * @return True if this pool hands out direct (off-heap) buffers
+     */
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * @return Number of leases served from a pooled buffer
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return Number of leases that needed a new allocation
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * @return Index of the smallest size class that can hold the given number of bytes, or -1 if it is too large
+     */
+    private static int sizeClassIndex(int size) {
+        int shift = size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+        if (shift > MAX_SIZE_CLASS_SHIFT) {
+            return -1;
+        }
+        return Math.max(shift, MIN_SIZE_CLASS_SHIFT) - MIN_SIZE_CLASS_SHIFT;
+    }
+
+    private static final class SizeClass {
+        private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger idle = new AtomicInteger(0);
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.amazonaws.transcribestreaming;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A processing step applied in place to each chunk of audio after it is read and before its AudioEvent is built, such
+ * as gain control or filtering. Processors keep state from one chunk to the next, so each stream needs its own
+ * instance; publishers therefore take a factory and create processors per subscription.
+ */
+public interface AudioChunkProcessor {
+
+    /**
+     * Process the audio between the chunk's position and limit in place
+     * @param chunk A writable buffer holding whole frames of audio. Its position and limit must be left unchanged.
+     */
+    void process(ByteBuffer chunk);
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.transcribestreaming;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process-wide scheduler used by every AudioStreamPublisher to read audio and emit AudioEvents. Subscriptions only
+ * occupy one of its threads while they have demand to drain, so many concurrent streams share a small, bounded pool
+ * instead of each pinning a thread of its own.
+ *
+ * The pool size can be set with the system property {@value #THREADS_PROPERTY} (defaults to the number of available
+ * processors), or the whole scheduler can be replaced with {@link #setDefault(ScheduledExecutorService)} before any
+ * stream is started.
+ */
+public final class AudioEmissionScheduler {
+
+    public static final String THREADS_PROPERTY = "transcribestreaming.emission.threads";
+    private static final String THREAD_NAME_PREFIX = "audio-emission-";
+    private static final long SHUTDOWN_TIMEOUT_MS = 1000;
+
+    private static ScheduledExecutorService defaultScheduler;
+    private static boolean ownsDefaultScheduler;
+
+    private AudioEmissionScheduler() {
+    }
+
+    /**
+     * Get the shared scheduler, creating it on first use
+     * @return Scheduler shared by all publishers that were not given one explicitly
+     */
+    public static synchronized ScheduledExecutorService getDefault() {
+        if (defaultScheduler == null) {
+            defaultScheduler = newScheduler(Integer.getInteger(THREADS_PROPERTY,
+                    Runtime.getRuntime().availableProcessors()), THREAD_NAME_PREFIX);
+            ownsDefaultScheduler = true;
+            Runtime.getRuntime().addShutdownHook(new Thread(AudioEmissionScheduler::shutdown,
+                    THREAD_NAME_PREFIX + "shutdown"));
+        }
+        return defaultScheduler;
+    }
+
+    /**
+     * Replace the shared scheduler. The caller stays responsible for shutting down the scheduler it provides.
+     * @param scheduler Scheduler to be used by all publishers created without an explicit scheduler
+     */
+    public static synchronized void setDefault(ScheduledExecutorService scheduler) {
+        if (scheduler == null) {
+            throw new IllegalArgumentException("Scheduler must not be null");
+        }
+        if (ownsDefaultScheduler) {
+            defaultScheduler.shutdown();
+        }
+        defaultScheduler = scheduler;
+        ownsDefaultScheduler = false;
+    }
+
+    /**
+     * Create a scheduler suitable for audio emission, with named daemon threads
+     * @param threads Number of threads in the pool
+     * @param threadNamePrefix Prefix of the name of every thread in the pool
+     * @return A new scheduler
+     */
+    public static ScheduledExecutorService newScheduler(int threads, String threadNamePrefix) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Thread count must be positive");
+        }
+        AtomicInteger threadCount = new AtomicInteger(0);
+        ThreadFactory threadFactory = r -> {
+            Thread thread = new Thread(r, threadNamePrefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(threads, threadFactory);
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    /**
+     * Shut down the shared scheduler if it was created by this class, waiting briefly for in-flight emissions
+     */
+    public static synchronized void shutdown() {
+        if (defaultScheduler == null || !ownsDefaultScheduler) {
+            return;
+        }
+        defaultScheduler.shutdown();
+        try {
+            if (!defaultScheduler.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                defaultScheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            defaultScheduler.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.transcribestreaming;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * Helpers to derive sizes and rates from an AudioFormat
+ */
+final class AudioFormats {
+
+    private AudioFormats() {
+    }
+
+    /**
+     * @return Size of one frame (one sample for every channel) in bytes
+     */
+    static int frameSize(AudioFormat format) {
+        int frameSize = format.getFrameSize();
+        if (frameSize == AudioSystem.NOT_SPECIFIED) {
+            frameSize = ((format.getSampleSizeInBits() + 7) / 8) * format.getChannels();
+        }
+        return frameSize;
+    }
+
+    /**
+     * @return Number of bytes per second of audio, from its sample rate, sample size and channels
+     */
+    static double bytesPerSecond(AudioFormat format) {
+        double rate = format.getSampleRate() * frameSize(format);
+        if (!(rate > 0)) {
+            throw new IllegalArgumentException("Audio format has no known byte rate: " + format);
+        }
+        return rate;
+    }
+
+    /**
+     * Convert a duration to a number of bytes, rounded to whole frames so a chunk never splits a sample
+     * @param format Format of the audio
+     * @param durationMillis Duration in milliseconds
+     * @return Size in bytes, at least one frame
+     */
+    static int bytesForDuration(AudioFormat format, int durationMillis) {
+        int frameSize = frameSize(format);
+        long frames = Math.round(format.getSampleRate() * durationMillis / 1000d);
+        return (int) Math.max(frameSize, frames * frameSize);
+    }
+}
@@ -0,0 +1,404 @@
+/*
+ * Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.amazonaws.transcribestreaming;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stream stage combining several sources, such as a microphone and a softphone line, into one stream so they are
+ * transcribed together in a single session. Sources are either summed to mono or placed on separate channels, which
+ * works with channel identification.
+ *
+ * Every source is read by its own feeder thread into a jitter buffer (an AudioRingBuffer), so sources that deliver
+ * audio in bursts or block independently do not hold each other up. The mixer emits {@value #BLOCK_MS} ms blocks,
+ * taking the same amount of audio from every source. When a source has not delivered its share within the jitter
+ * allowance, its share is filled with silence and the same amount of its late audio is skipped once it arrives, so
+ * the sources stay aligned in time. Feeders wait for room in their buffer rather than drop audio, so file sources are
+ * simply read at the pace of the live ones.
+ *
+ * Blocks are mixed on a thread of the mixer's own into an output ring, which publishers poll as a
+ * NonBlockingAudioSource, so waiting for late sources never holds a shared emission thread.
+ */
+public final class AudioMixer extends InputStream implements NonBlockingAudioSource {
+
+    public static final int DEFAULT_JITTER_MS = 60;
+    private static final int BLOCK_MS = 20;
+    private static final int BUFFER_MS = 2000;
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * How sources are combined
+     */
+    public enum Mode {
+        /** Sum all sources into one mono channel, saturating at full scale */
+        MONO,
+        /** Put each source on its own channel, in the order the sources were given */
+        CHANNELS
+    }
+
+    private final Source[] sources;
+    private final Mode mode;
+    private final int blockBytes;
+    private final long jitterNanos;
+    private final byte[] sourceBlock;
+    private final int[] sums;
+    private final byte[] output;
+    private final AudioRingBuffer mixed;
+    private final InputStream mixedInput;
+    private volatile Thread waitingMixer;
+    private volatile boolean closed = false;
+
+    private AudioMixer(List<AudioInputStream> inputs, AudioFormat format, Mode mode, int jitterMillis) {
+        this.mode = mode;
+        this.blockBytes = AudioFormats.bytesForDuration(format, BLOCK_MS);
+        this.jitterNanos = TimeUnit.MILLISECONDS.toNanos(jitterMillis);
+        this.sourceBlock = new byte[blockBytes];
+        this.sums = new int[blockBytes / 2];
+        this.output = new byte[mode == Mode.MONO ? blockBytes : blockBytes * inputs.size()];
+        this.sources = new Source[inputs.size()];
+        int bufferBytes = AudioFormats.bytesForDuration(format, BUFFER_MS);
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = new Source(inputs.get(i), new AudioRingBuffer(bufferBytes), blockBytes);
+        }
+        this.mixed = new AudioRingBuffer(mode == Mode.MONO ? bufferBytes : bufferBytes * inputs.size());
+        this.mixedInput = mixed.getInputStream();
+        for (int i = 0; i < sources.length; i++) {
+            Thread feeder = new Thread(sources[i]::feed, "audio-mixer-feed-" + i);
+            feeder.setDaemon(true);
+            feeder.start();
+        }
+        Thread mixer = new Thread(this::run, "audio-mixer");
+        mixer.setDaemon(true);
+        mixer.start();
+    }
+
+    /**
+     * Mix sources with the default jitter allowance
+     * @param sources Sources in 16-bit signed little-endian mono PCM, all at the same sample rate
+     * @param mode How to combine them
+     * @return The mixed stream. Its underlying AudioMixer can be found with {@link #of(AudioInputStream)}.
+     */
+    public static AudioInputStream mix(List<AudioInputStream> sources, Mode mode) {
+        return mix(sources, mode, DEFAULT_JITTER_MS);
+    }
+
+    /**
+     * Mix sources
+     * @param sources Sources in 16-bit signed little-endian mono PCM, all at the same sample rate
+     * @param mode How to combine them
+     * @param jitterMillis How long to wait for a late source before filling its share with silence
+     * @return The mixed stream. Its underlying AudioMixer can be found with {@link #of(AudioInputStream)}.
+     */
+    public static AudioInputStream mix(List<AudioInputStream> sources, Mode mode, int jitterMillis) {
+        if (sources.isEmpty()) {
+            throw new IllegalArgumentException("At least one source is required");
+        }
+        AudioFormat format = sources.get(0).getFormat();
+        for (AudioInputStream source : sources) {
+            AudioFormat sourceFormat = source.getFormat();
+            if (!PcmFormatConverter.isPcm16Mono(sourceFormat) || sourceFormat.getSampleRate() != format.getSampleRate()) {
+                throw new IllegalArgumentException("Mixing requires 16-bit little-endian mono PCM sources at the same "
+                        + "sample rate: " + sourceFormat);
+            }
+        }
+        AudioMixer mixer = new AudioMixer(sources, format, mode, jitterMillis);
+        int channels = mode == Mode.MONO ? 1 : sources.size();
+        AudioFormat mixedFormat = new AudioFormat(format.getSampleRate(), 16, channels, true, false);
+        return new MixedStream(mixer, mixedFormat);
+    }
+
+    /**
+     * @param stream A stream returned by {@link #mix(List, Mode)}
+     * @return The mixer behind the stream, to read its statistics, or null if the stream is not mixed
+     */
+    public static AudioMixer of(AudioInputStream stream) {
+        return stream instanceof MixedStream ? ((MixedStream) stream).mixer : null;
+    }
+
+    /**
+     * @param source Index of the source, in the order the sources were given
+     * @return Bytes of silence filled in for the source because it was later than the jitter allowance
+     */
+    public long getUnderrunBytes(int source) {
+        return sources[source].underrunBytes.get();
+    }
+
+    /**
+     * @param source Index of the source, in the order the sources were given
+     * @return Bytes of late audio from the source skipped to keep it aligned with the others
+     */
+    public long getSkippedBytes(int source) {
+        return sources[source].skippedBytes.get();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        return mixedInput.read(b, off, len);
+    }
+
+    @Override
+    public int poll(byte[] b, int off, int len) {
+        return mixed.poll(b, off, len);
+    }
+
+    @Override
+    public boolean isEnded() {
+        return mixed.isClosed();
+    }
+
+    @Override
+    public int available() {
+        return mixed.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        mixed.close();
+        IOException failure = null;
+        for (Source source : sources) {
+            source.ring.close();
+            try {
+                source.input.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Mixer loop: mix blocks into the output ring until every source has ended, waiting for room rather than dropping
+     * audio
+     */
+    private void run() {
+        try {
+            while (mixBlock()) {
+                int written = 0;
+                while (written < output.length && !closed) {
+                    if (mixed.capacity() - mixed.available() < output.length - written) {
+                        LockSupport.parkNanos(this, MAX_PARK_NANOS);
+                        continue;
+                    }
+                    written += mixed.write(output, written, output.length - written);
+                }
+            }
+        } catch (IOException e) {
+            //An interrupted mixer ends the mixed stream
+        } finally {
+            mixed.close();
+        }
+    }
+
+    /**
+     * Wait for every source to deliver a block or for the jitter allowance to pass, then mix one block
+     * @return False once every source has ended
+     */
+    private boolean mixBlock() throws IOException {
+        long deadline = 0;
+        for (;;) {
+            if (closed) {
+                return false;
+            }
+            boolean allReady = true;
+            boolean anyReady = false;
+            boolean anyActive = false;
+            for (Source source : sources) {
+                source.skipDebt();
+                boolean ended = source.ring.isClosed();
+                boolean ready = source.ring.available() >= blockBytes || (ended && source.ring.available() > 0);
+                anyActive |= !ended || source.ring.available() > 0;
+                anyReady |= ready;
+                allReady &= ready || ended;
+            }
+            if (!anyActive) {
+                return false;
+            }
+            if (allReady) {
+                break;
+            }
+            long now = System.nanoTime();
+            if (anyReady) {
+                if (deadline == 0) {
+                    deadline = now + jitterNanos;
+                } else if (now >= deadline) {
+                    break;
+                }
+            }
+            waitingMixer = Thread.currentThread();
+            LockSupport.parkNanos(this, deadline == 0 ? MAX_PARK_NANOS : Math.min(MAX_PARK_NANOS, deadline - now));
+            waitingMixer = null;
+            if (Thread.interrupted()) {
+                throw new IOException("Interrupted while waiting for audio");
+            }
+        }
+
+        int samples = blockBytes / 2;
+        if (mode == Mode.MONO) {
+            Arrays.fill(sums, 0);
+        }
+        for (int i = 0; i < sources.length; i++) {
+            Source source = sources[i];
+            int read = source.take(sourceBlock, blockBytes);
+            if (mode == Mode.MONO) {
+                PcmKernels.accumulate(sourceBlock, 0, samples, sums);
+            } else {
+                PcmKernels.interleave(sourceBlock, 0, samples, output, 0, i, sources.length);
+            }
+            if (read < blockBytes && !source.ring.isClosed()) {
+                source.underrun(blockBytes - read);
+            }
+        }
+        if (mode == Mode.MONO) {
+            PcmKernels.saturate(sums, samples, output, 0);
+        }
+        return true;
+    }
+
+    private void wakeMixer() {
+        Thread mixer = waitingMixer;
+        if (mixer != null) {
+            LockSupport.unpark(mixer);
+        }
+    }
+
+    /**
+     * One input with its feeder thread and jitter buffer
+     */
+    private final class Source {
+        private final AudioInputStream input;
+        private final AudioRingBuffer ring;
+        private final byte[] chunk;
+        private final AtomicLong underrunBytes = new AtomicLong(0);
+        private final AtomicLong skippedBytes = new AtomicLong(0);
+        private volatile Thread feeder;
+        private long debt = 0;
+
+        private Source(AudioInputStream input, AudioRingBuffer ring, int chunkSize) {
+            this.input = input;
+            this.ring = ring;
+            this.chunk = new byte[chunkSize];
+        }
+
+        /**
+         * Feeder loop: copy the source into the jitter buffer, waiting for room rather than dropping audio
+         */
+        private void feed() {
+            feeder = Thread.currentThread();
+            try {
+                int len;
+                while (!closed && (len = input.read(chunk, 0, chunk.length)) >= 0) {
+                    int written = 0;
+                    while (written < len && !closed) {
+                        if (ring.capacity() - ring.available() < len - written) {
+                            LockSupport.parkNanos(this, MAX_PARK_NANOS);
+                            continue;
+                        }
+                        written += ring.write(chunk, written, len - written);
+                    }
+                    wakeMixer();
+                }
+            } catch (IOException e) {
+                //A failed source ends like an exhausted one; the others carry on
+            } finally {
+                ring.close();
+                wakeMixer();
+            }
+        }
+
+        /**
+         * Take up to one block from the jitter buffer, zero-filling whatever is missing
+         * @return Number of bytes of real audio taken
+         */
+        private int take(byte[] block, int len) {
+            int taken = 0;
+            int n;
+            while (taken < len && (n = ring.poll(block, taken, len - taken)) > 0) {
+                taken += n;
+            }
+            Arrays.fill(block, taken, len, (byte) 0);
+            Thread waitingFeeder = feeder;
+            if (waitingFeeder != null) {
+                LockSupport.unpark(waitingFeeder);
+            }
+            return taken;
+        }
+
+        private void underrun(int bytes) {
+            underrunBytes.addAndGet(bytes);
+            debt += bytes;
+        }
+
+        /**
+         * Skip late audio standing in for silence already emitted
+         */
+        private void skipDebt() {
+            while (debt > 0) {
+                int n = ring.poll(sourceBlock, 0, (int) Math.min(debt, blockBytes));
+                if (n <= 0) {
+                    return;
+                }
+                debt -= n;
+                skippedBytes.addAndGet(n);
+            }
+        }
+    }
+
+    /**
+     * AudioInputStream over the mixer, so the mixer can be found again for its statistics and publishers can poll it
+     */
+    private static final class MixedStream extends AudioInputStream implements NonBlockingAudioSource {
+        private final AudioMixer mixer;
+
+        private MixedStream(AudioMixer mixer, AudioFormat format) {
+            super(mixer, format, AudioSystem.NOT_SPECIFIED);
+            this.mixer = mixer;
+        }
+
+        @Override
+        public int poll(byte[] b, int off, int len) {
+            return mixer.poll(b, off, len);
+        }
+
+        @Override
+        public boolean isEnded() {
+            return mixer.isEnded();
+        }
+
+        @Override
+        public int available() {
+            return mixer.available();
+        }
+    }
+}
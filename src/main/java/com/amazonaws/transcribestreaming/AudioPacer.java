@@ -0,0 +1,124 @@
+/*
+ * Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.transcribestreaming;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces audio chunks so they are emitted at the rate the audio would play back, as if a file were a live call, or at
+ * a fixed multiple of that rate to replay recordings faster than real time. Pacing only ever delays chunks, so the
+ * service's own demand remains the upper bound on the rate: when it requests audio more slowly than the configured
+ * speed, the stream slows down with it.
+ *
+ * Emission times are computed from an absolute timeline (when the first chunk went out plus the duration of the
+ * audio sent so far), so scheduling delays do not accumulate into drift. If emission falls behind the timeline by
+ * more than the allowed jitter, for example because the subscriber stopped requesting data, the timeline is moved
+ * forward instead of bursting all the late audio at once.
+ *
+ * A pacer keeps per-stream state and is used by a single subscription at a time. Its throughput figures may be
+ * read from any thread.
+ */
+public class AudioPacer {
+
+    public static final long DEFAULT_MAX_JITTER_MS = 200;
+
+    private final double audioBytesPerSecond;
+    private final double bytesPerSecond;
+    private final long maxJitterNanos;
+    private volatile long firstChunkNanos = -1;
+    private volatile long lastChunkNanos = -1;
+    private long startNanos = -1;
+    private volatile long bytesEmitted = 0;
+
+    /**
+     * Create a pacer with the default jitter bound
+     * @param format Format of the audio being streamed, used to compute its byte rate
+     */
+    public AudioPacer(AudioFormat format) {
+        this(format, 1.0, DEFAULT_MAX_JITTER_MS);
+    }
+
+    /**
+     * @param format Format of the audio being streamed, used to compute its byte rate
+     * @param speed Multiple of real time to emit audio at, e.g. 1.0 for real time or 8.0 for eight times faster
+     * @param maxJitterMillis How far emission may fall behind the audio timeline before the timeline is moved
+     */
+    public AudioPacer(AudioFormat format, double speed, long maxJitterMillis) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("Speed must be positive");
+        }
+        this.audioBytesPerSecond = AudioFormats.bytesPerSecond(format);
+        this.bytesPerSecond = audioBytesPerSecond * speed;
+        this.maxJitterNanos = TimeUnit.MILLISECONDS.toNanos(maxJitterMillis);
+    }
+
+    /**
+     * @return How long to wait before the next chunk may be emitted, in nanoseconds. 0 if it may go out now.
+     */
+    public long nanosUntilNextChunk() {
+        long now = System.nanoTime();
+        if (startNanos < 0) {
+            startNanos = now;
+            return 0;
+        }
+        long lateness = now - dueNanos();
+        if (lateness > maxJitterNanos) {
+            startNanos += lateness - maxJitterNanos;
+        }
+        return Math.max(0, dueNanos() - now);
+    }
+
+    /**
+     * Record that a chunk was emitted
+     * @param bytes Size of the chunk in bytes
+     */
+    public void onChunkEmitted(int bytes) {
+        long now = System.nanoTime();
+        if (firstChunkNanos < 0) {
+            firstChunkNanos = now;
+        }
+        lastChunkNanos = now;
+        bytesEmitted += bytes;
+    }
+
+    /**
+     * @return Seconds of audio emitted so far
+     */
+    public double getAudioSecondsEmitted() {
+        return bytesEmitted / audioBytesPerSecond;
+    }
+
+    /**
+     * Measured replay throughput: seconds of audio emitted per second of wall clock time since the first chunk. For
+     * a real time stream this converges to 1.0; for an accelerated replay it shows the speed actually achieved.
+     * @return Audio seconds per wall second, or 0 before two chunks were emitted
+     */
+    public double getAudioSecondsPerWallSecond() {
+        long first = firstChunkNanos;
+        long elapsed = lastChunkNanos - first;
+        if (first < 0 || elapsed <= 0) {
+            return 0;
+        }
+        return getAudioSecondsEmitted() / (elapsed / 1_000_000_000d);
+    }
+
+    private long dueNanos() {
+        return startNanos + (long) (bytesEmitted * 1_000_000_000d / bytesPerSecond);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.transcribestreaming;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs stages such as format conversion or voice activity detection on a thread of their own and hands their output
+ * to the publisher through an AudioRingBuffer. Stages read their input with blocking reads, which on live audio wait
+ * for the microphone; this way that waiting never happens on a shared emission thread, and the publisher polls the
+ * ring instead.
+ *
+ * What happens when the publisher falls behind depends on the source. A live source, such as a capture line, produces
+ * audio in real time and cannot be made to wait, so like MicrophoneCapture the pump drops what does not fit in the
+ * ring. Any other source, such as a file, is read no faster than the publisher takes it: the pump waits for room and
+ * never drops audio.
+ */
+public final class AudioPump {
+
+    private static final int BUFFER_MS = 5000;
+    private static final int CHUNK_MS = 20;
+    private static final long WAIT_FOR_ROOM_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private AudioPump() {
+    }
+
+    /**
+     * Pump a stream into a ring on a new daemon thread. Closing the returned stream stops the pump and closes the
+     * source once its next read returns.
+     * @param source Blocking audio stream, typically stages over live audio
+     * @param live True only if the source produces audio in real time and cannot wait, such as a capture line; audio
+     *             the publisher has not taken in time is then dropped. Otherwise the pump waits for room.
+     * @return Stream a publisher polls without blocking, or the source itself if it can already be polled
+     */
+    public static AudioInputStream pump(AudioInputStream source, boolean live) {
+        if (source instanceof NonBlockingAudioSource) {
+            return source;
+        }
+        AudioFormat format = source.getFormat();
+        AudioRingBuffer ring = new AudioRingBuffer(AudioFormats.bytesForDuration(format, BUFFER_MS));
+        Thread thread = new Thread(() -> run(source, ring, AudioFormats.bytesForDuration(format, CHUNK_MS), live),
+                "audio-pump");
+        thread.setDaemon(true);
+        thread.start();
+        return ring.getAudioInputStream(format);
+    }
+
+    private static void run(AudioInputStream source, AudioRingBuffer ring, int chunkSize, boolean live) {
+        byte[] chunk = new byte[chunkSize];
+        try {
+            int len;
+            while (!ring.isClosed() && (len = source.read(chunk, 0, chunk.length)) >= 0) {
+                if (live) {
+                    //Like the microphone capture, a publisher that falls behind loses the overflow rather than stalling
+                    ring.write(chunk, 0, len);
+                    continue;
+                }
+                int written = 0;
+                while (written < len && !ring.isClosed()) {
+                    if (ring.capacity() - ring.available() < len - written) {
+                        LockSupport.parkNanos(WAIT_FOR_ROOM_NANOS);
+                        continue;
+                    }
+                    written += ring.write(chunk, written, len - written);
+                }
+            }
+        } catch (IOException e) {
+            //A failed source ends the stream like an exhausted one
+        } finally {
+            ring.close();
+            try {
+                source.close();
+            } catch (IOException e) {
+                //Nothing more to do for a source that is being discarded
+            }
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.transcribestreaming;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A lock-free single-producer/single-consumer ring buffer of audio bytes. One thread writes (typically a capture
+ * thread reading a TargetDataLine) and one thread reads, through {@link #getInputStream()}. The stream also implements
+ * NonBlockingAudioSource, so a publisher polls it rather than blocking a shared thread. The writer never blocks:
+ * if the ring is full the bytes that do not fit are dropped and counted as an overrun, so a stall on the reading side
+ * can never back up into the capture device.
+ *
+ * Read and write positions are ever-increasing byte sequences published with ordered writes; the ring capacity is a
+ * power of two so positions map to indexes with a mask.
+ */
+public class AudioRingBuffer {
+
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final byte[] buffer;
+    private final int mask;
+    private final AtomicLong writeSequence = new AtomicLong(0);
+    private final AtomicLong readSequence = new AtomicLong(0);
+    private final AtomicLong droppedBytes = new AtomicLong(0);
+    private final AtomicLong overruns = new AtomicLong(0);
+    private volatile long maxFill = 0;
+    private volatile boolean closed = false;
+    private volatile Thread waitingReader;
+
+    /**
+     * @param minCapacity Minimum number of bytes the ring holds. Rounded up to a power of two.
+     */
+    public AudioRingBuffer(int minCapacity) {
+        if (minCapacity <= 0 || minCapacity > (1 << 30)) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30 bytes");
+        }
+        int capacity = Integer.highestOneBit(minCapacity);
+        if (capacity < minCapacity) {
+            capacity <<= 1;
+        }
+        this.buffer = new byte[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Write bytes into the ring. Must only be called by the producer thread.
+     * @return Number of bytes written. Anything less than len was dropped and counted as an overrun, unless the ring
+     * is closed, in which case nothing is written or counted.
+     */
+    public int write(byte[] src, int offset, int len) {
+        if (closed) {
+            return 0;
+        }
+        long write = writeSequence.get();
+        long fill = write - readSequence.get();
+        int count = (int) Math.min(len, buffer.length - fill);
+        if (count < len) {
+            overruns.incrementAndGet();
+            droppedBytes.addAndGet(len - count);
+        }
+        if (count > 0) {
+            copy(src, offset, buffer, (int) (write & mask), count, true);
+            writeSequence.lazySet(write + count);
+            if (fill + count > maxFill) {
+                maxFill = fill + count;
+            }
+            wakeReader();
+        }
+        return count;
+    }
+
+    /**
+     * Read available bytes without blocking. Must only be called by the consumer thread.
+     * @return Number of bytes read, 0 if the ring is empty, or -1 if it is empty and closed
+     */
+    public int poll(byte[] dst, int offset, int len) {
+        long read = readSequence.get();
+        long available = writeSequence.get() - read;
+        if (available == 0) {
+            return closed && writeSequence.get() == read ? -1 : 0;
+        }
+        int count = (int) Math.min(len, available);
+        copy(buffer, (int) (read & mask), dst, offset, count, false);
+        readSequence.lazySet(read + count);
+        return count;
+    }
+
+    /**
+     * Mark the end of the audio. The reader sees end of stream once it has drained the remaining bytes.
+     */
+    public void close() {
+        closed = true;
+        wakeReader();
+    }
+
+    /**
+     * @return True once the ring has been closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return Number of bytes the ring holds
+     */
+    public int capacity() {
+        return buffer.length;
+    }
+
+    /**
+     * @return Number of bytes currently waiting to be read
+     */
+    public int available() {
+        return (int) (writeSequence.get() - readSequence.get());
+    }
+
+    /**
+     * @return Current fill level, between 0 and 1
+     */
+    public double getFillLevel() {
+        return available() / (double) buffer.length;
+    }
+
+    /**
+     * @return Highest fill level seen so far, between 0 and 1
+     */
+    public double getMaxFillLevel() {
+        return maxFill / (double) buffer.length;
+    }
+
+    /**
+     * @return Number of writes that did not fit completely into the ring
+     */
+    public long getOverruns() {
+        return overruns.get();
+    }
+
+    /**
+     * @return Total number of bytes dropped because the ring was full
+     */
+    public long getDroppedBytes() {
+        return droppedBytes.get();
+    }
+
+    /**
+     * @return An InputStream for the consumer thread. Reads block until at least one byte is available or the ring is
+     * closed, while polling through NonBlockingAudioSource never blocks. Closing the stream closes the ring.
+     */
+    public InputStream getInputStream() {
+        return new RingInputStream();
+    }
+
+    /**
+     * @param format Format of the audio written into the ring
+     * @return An AudioInputStream for the consumer thread, which a publisher polls without blocking. Closing the stream
+     * closes the ring.
+     */
+    public AudioInputStream getAudioInputStream(AudioFormat format) {
+        return new RingAudioInputStream(new RingInputStream(), format);
+    }
+
+    /**
+     * Reading side of the ring
+     */
+    private final class RingInputStream extends InputStream implements NonBlockingAudioSource {
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int n;
+            while ((n = poll(b, off, len)) == 0) {
+                waitingReader = Thread.currentThread();
+                if (AudioRingBuffer.this.available() == 0 && !closed) {
+                    LockSupport.parkNanos(AudioRingBuffer.this, MAX_PARK_NANOS);
+                }
+                waitingReader = null;
+                if (Thread.interrupted()) {
+                    throw new IOException("Interrupted while waiting for audio");
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public int poll(byte[] b, int off, int len) {
+            return AudioRingBuffer.this.poll(b, off, len);
+        }
+
+        @Override
+        public boolean isEnded() {
+            return closed;
+        }
+
+        @Override
+        public int available() {
+            return AudioRingBuffer.this.available();
+        }
+
+        @Override
+        public void close() {
+            AudioRingBuffer.this.close();
+        }
+    }
+
+    /**
+     * AudioInputStream over the ring that keeps it pollable
+     */
+    private static final class RingAudioInputStream extends AudioInputStream implements NonBlockingAudioSource {
+        private final RingInputStream ring;
+
+        private RingAudioInputStream(RingInputStream ring, AudioFormat format) {
+            super(ring, format, AudioSystem.NOT_SPECIFIED);
+            this.ring = ring;
+        }
+
+        @Override
+        public int poll(byte[] b, int off, int len) {
+            return ring.poll(b, off, len);
+        }
+
+        @Override
+        public boolean isEnded() {
+            return ring.isEnded();
+        }
+
+        @Override
+        public int available() {
+            return ring.available();
+        }
+    }
+
+    private void wakeReader() {
+        Thread reader = waitingReader;
+        if (reader != null) {
+            LockSupport.unpark(reader);
+        }
+    }
+
+    /**
+     * Copy between a linear array and the ring, wrapping around the end of the ring
+     */
+    private void copy(byte[] src, int srcPos, byte[] dst, int dstPos, int count, boolean intoRing) {
+        int ringPos = intoRing ? dstPos : srcPos;
+        int first = Math.min(count, buffer.length - ringPos);
+        System.arraycopy(src, srcPos, dst, dstPos, first);
+        if (first < count) {
+            if (intoRing) {
+                System.arraycopy(src, srcPos + first, dst, 0, count - first);
+            } else {
+                System.arraycopy(src, 0, dst, dstPos + first, count - first);
+            }
+        }
+    }
+}
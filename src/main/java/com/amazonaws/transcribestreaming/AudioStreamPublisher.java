@@ -21,22 +21,208 @@ import org.reactivestreams.Publisher;
 import org.reactivestreams.Subscriber;
 import software.amazon.awssdk.services.transcribestreaming.model.AudioStream;
 
+import javax.sound.sampled.AudioFormat;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Supplier;
 
 /**
  * AudioStreamPublisher implements audio stream publisher.
- * AudioStreamPublisher emits audio stream asynchronously in a separate thread
+ * AudioStreamPublisher emits audio stream asynchronously on a scheduler shared by all publishers
  */
 public class AudioStreamPublisher implements Publisher<AudioStream> {
 
+    public static final int DEFAULT_CHUNK_DURATION_MS = 100;
+
     private final InputStream inputStream;
+    private final ScheduledExecutorService executor;
+    private final List<Supplier<? extends AudioChunkProcessor>> chunkProcessors = new ArrayList<>();
+    private AudioBufferPool bufferPool = AudioBufferPool.getDefault();
+    private AudioFormat audioFormat;
+    private int chunkDurationMillis = DEFAULT_CHUNK_DURATION_MS;
+    private AudioFormat pacingFormat;
+    private double pacingSpeed = 1.0;
+    private volatile AudioPacer activePacer;
+    private boolean flacEncoding = false;
+    private volatile FlacEncoder activeEncoder;
+    private ByteToAudioEventSubscription activeSubscription;
+    private volatile long sessionStartBytes = 0;
 
     public AudioStreamPublisher(InputStream inputStream) {
+        this(inputStream, AudioEmissionScheduler.getDefault());
+    }
+
+    /**
+     * @param inputStream Audio to publish
+     * @param executor Scheduler to read and emit audio on, instead of the shared AudioEmissionScheduler
+     */
+    public AudioStreamPublisher(InputStream inputStream, ScheduledExecutorService executor) {
         this.inputStream = inputStream;
+        this.executor = executor;
+    }
+
+    /**
+     * Set the pool chunk buffers are leased from
+     * @param bufferPool Pool of heap or direct buffers, shared with other publishers if desired
+     */
+    public void setBufferPool(AudioBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Set the format of the audio in the input stream. When the format is known, chunks are sized by duration (see
+     * {@link #setChunkDurationMillis(int)}) instead of a fixed number of bytes.
+     * @param audioFormat Format of the audio in the input stream
+     */
+    public void setAudioFormat(AudioFormat audioFormat) {
+        this.audioFormat = audioFormat;
+    }
+
+    /**
+     * Set how much audio each AudioEvent carries. Shorter chunks lower latency, longer chunks lower per-event overhead.
+     * Only takes effect once the audio format is set.
+     * @param chunkDurationMillis Target duration of each chunk in milliseconds
+     */
+    public void setChunkDurationMillis(int chunkDurationMillis) {
+        if (chunkDurationMillis <= 0) {
+            throw new IllegalArgumentException("Chunk duration must be positive");
+        }
+        this.chunkDurationMillis = chunkDurationMillis;
+    }
+
+    /**
+     * Process every chunk in place before it is sent, e.g. with {@link AutomaticGainControl}. Processors run in the
+     * order they were added. Every subscription gets processors of its own from the factory, as subscriptions may run
+     * at the same time, e.g. while a session is rotated. Must be called before subscribing.
+     * @param processorFactory Creates a processor for one subscription's audio
+     */
+    public void addChunkProcessor(Supplier<? extends AudioChunkProcessor> processorFactory) {
+        chunkProcessors.add(processorFactory);
+    }
+
+    /**
+     * Send audio encoded as FLAC instead of PCM. Each subscription gets its own encoder, so a retried session starts
+     * a new FLAC stream. The request must declare the "flac" media encoding. Only takes effect once the audio format
+     * is set.
+     * @param flacEncoding True to encode audio as FLAC
+     */
+    public void setFlacEncoding(boolean flacEncoding) {
+        this.flacEncoding = flacEncoding;
+    }
+
+    /**
+     * Get the encoder of the most recent subscription, to read its compression ratio and encoding cost
+     * @return FLAC encoder, or null if FLAC encoding is off or nothing subscribed yet
+     */
+    public FlacEncoder getFlacEncoder() {
+        return activeEncoder;
+    }
+
+    /**
+     * Get the input stream audio is read from
+     * @return Audio input stream
+     */
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    /**
+     * Get where the current session's audio starts in the input stream. Every session continues reading where the
+     * previous one stopped, so this is the audio read by all earlier subscriptions. Result times of the current
+     * session are relative to this offset.
+     * @return Offset in seconds from the start of the audio, or -1 if the audio format is not set
+     */
+    public double getSessionStartSeconds() {
+        if (audioFormat == null) {
+            return -1;
+        }
+        return sessionStartBytes / AudioFormats.bytesPerSecond(audioFormat);
+    }
+
+    /**
+     * Emit audio at the rate it would play back instead of as fast as the service requests it. Useful to make file
+     * replays behave like live audio.
+     * @param format Format of the audio in the input stream, or null to disable pacing
+     */
+    public void setRealTimePacing(AudioFormat format) {
+        setPacing(format, 1.0);
+    }
+
+    /**
+     * Emit audio at a multiple of the rate it would play back, e.g. to backfill archived recordings faster than
+     * real time. The service's demand still bounds the rate, so a speed it cannot keep up with just slows down to
+     * what it requests.
+     * @param format Format of the audio in the input stream, or null to disable pacing
+     * @param speed Multiple of real time, e.g. 2.0 or 8.0
+     */
+    public void setPacing(AudioFormat format, double speed) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("Speed must be positive");
+        }
+        this.pacingFormat = format;
+        this.pacingSpeed = speed;
+    }
+
+    /**
+     * Get the measured throughput of the most recent paced subscription, in seconds of audio sent per second of wall
+     * clock time. Use it to check how close an accelerated replay gets to its configured speed.
+     * @return Audio seconds per wall second, or 0 if pacing is disabled or nothing was sent yet
+     */
+    public double getAudioSecondsPerWallSecond() {
+        AudioPacer pacer = activePacer;
+        return pacer == null ? 0 : pacer.getAudioSecondsPerWallSecond();
     }
 
     @Override
     public void subscribe(Subscriber<? super AudioStream> s) {
-        s.onSubscribe(new ByteToAudioEventSubscription(s, inputStream));
+        ByteToAudioEventSubscription subscription = newSubscription(s);
+        synchronized (this) {
+            if (activeSubscription != null) {
+                sessionStartBytes += activeSubscription.getBytesRead();
+            }
+            activeSubscription = subscription;
+        }
+        subscription.setBufferPool(bufferPool);
+        if (!chunkProcessors.isEmpty()) {
+            List<AudioChunkProcessor> processors = new ArrayList<>(chunkProcessors.size());
+            for (Supplier<? extends AudioChunkProcessor> factory : chunkProcessors) {
+                processors.add(factory.get());
+            }
+            subscription.setChunkProcessors(processors);
+        }
+        if (audioFormat != null) {
+            subscription.setChunkSize(AudioFormats.bytesForDuration(audioFormat, chunkDurationMillis),
+                    AudioFormats.frameSize(audioFormat));
+        }
+        if (flacEncoding && audioFormat != null) {
+            FlacEncoder encoder = new FlacEncoder(audioFormat);
+            subscription.setEncoder(encoder);
+            activeEncoder = encoder;
+        }
+        if (pacingFormat != null) {
+            AudioPacer pacer = new AudioPacer(pacingFormat, pacingSpeed, AudioPacer.DEFAULT_MAX_JITTER_MS);
+            subscription.setPacer(pacer);
+            activePacer = pacer;
+        }
+        s.onSubscribe(subscription);
+    }
+
+    /**
+     * Create the subscription handed to a new subscriber. The publisher's chunk size, buffer pool and pacing settings
+     * are applied to it afterwards.
+     * @param s The subscriber
+     * @return A new subscription
+     */
+    protected ByteToAudioEventSubscription newSubscription(Subscriber<? super AudioStream> s) {
+        return new ByteToAudioEventSubscription(s, inputStream, executor);
+    }
+
+    /**
+     * @return Scheduler audio is read and emitted on
+     */
+    protected ScheduledExecutorService getExecutor() {
+        return executor;
     }
 }
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.amazonaws.transcribestreaming;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Automatic gain control for 16-bit signed little-endian mono PCM. Quiet input is brought up, and loud input down,
+ * towards a target RMS level, which keeps partial results steadier on weak microphones.
+ *
+ * The level is measured over {@value #BLOCK_MS} ms blocks. The gain moves towards the level's target gain quickly when
+ * it has to come down (attack) and slowly when it can go up (release). It is held while the input is below the
+ * silence threshold, so pauses do not pump up background noise, and capped so a block's peak never clips. Within a
+ * block the gain is ramped rather than stepped, to avoid audible zipper noise.
+ *
+ * Add it to an {@link AudioStreamPublisher} with {@link AudioStreamPublisher#addChunkProcessor(java.util.function.Supplier)},
+ * so that every subscription gets a gain control of its own, e.g.
+ * {@code publisher.addChunkProcessor(() -> new AutomaticGainControl(format))}.
+ */
+public class AutomaticGainControl extends Pcm16ChunkProcessor {
+
+    public static final double DEFAULT_TARGET_LEVEL_DB = -20;
+    public static final int DEFAULT_ATTACK_MS = 20;
+    public static final int DEFAULT_RELEASE_MS = 1000;
+    public static final double DEFAULT_MAX_GAIN_DB = 30;
+    public static final double DEFAULT_SILENCE_THRESHOLD_DB = -55;
+    private static final int BLOCK_MS = 10;
+
+    private final int blockSamples;
+    private double targetLevel = fromDb(DEFAULT_TARGET_LEVEL_DB) * Short.MAX_VALUE;
+    private double attackCoefficient = smoothingCoefficient(DEFAULT_ATTACK_MS);
+    private double releaseCoefficient = smoothingCoefficient(DEFAULT_RELEASE_MS);
+    private double maxGain = fromDb(DEFAULT_MAX_GAIN_DB);
+    private double silenceLevel = fromDb(DEFAULT_SILENCE_THRESHOLD_DB) * Short.MAX_VALUE;
+    private float gain = 1;
+    private volatile float minAppliedGain = 1;
+    private volatile float maxAppliedGain = 1;
+    private volatile float currentGain = 1;
+
+    /**
+     * @param format Format of the audio, 16-bit little-endian mono PCM
+     */
+    public AutomaticGainControl(AudioFormat format) {
+        if (!PcmFormatConverter.isPcm16Mono(format)) {
+            throw new IllegalArgumentException("Gain control requires 16-bit little-endian mono PCM: " + format);
+        }
+        this.blockSamples = Math.max(1, Math.round(format.getSampleRate() * BLOCK_MS / 1000));
+    }
+
+    /**
+     * @param targetLevelDb RMS level to aim for, in dB relative to full scale, e.g. -20
+     */
+    public void setTargetLevel(double targetLevelDb) {
+        this.targetLevel = fromDb(targetLevelDb) * Short.MAX_VALUE;
+    }
+
+    /**
+     * @param attackMillis Time constant for lowering the gain when the input gets louder
+     * @param releaseMillis Time constant for raising the gain when the input gets quieter
+     */
+    public void setAttackRelease(int attackMillis, int releaseMillis) {
+        if (attackMillis <= 0 || releaseMillis <= 0) {
+            throw new IllegalArgumentException("Attack and release times must be positive");
+        }
+        this.attackCoefficient = smoothingCoefficient(attackMillis);
+        this.releaseCoefficient = smoothingCoefficient(releaseMillis);
+    }
+
+    /**
+     * @param maxGainDb Largest boost applied, in dB. Input is never attenuated by more than the same amount.
+     */
+    public void setMaxGain(double maxGainDb) {
+        this.maxGain = fromDb(maxGainDb);
+    }
+
+    /**
+     * @param silenceThresholdDb Level in dB relative to full scale below which the gain is held
+     */
+    public void setSilenceThreshold(double silenceThresholdDb) {
+        this.silenceLevel = fromDb(silenceThresholdDb) * Short.MAX_VALUE;
+    }
+
+    /**
+     * @return Gain applied to the most recent block, in dB
+     */
+    public double getGainDb() {
+        return toDb(currentGain);
+    }
+
+    /**
+     * @return Lowest gain applied so far, in dB
+     */
+    public double getMinAppliedGainDb() {
+        return toDb(minAppliedGain);
+    }
+
+    /**
+     * @return Highest gain applied so far, in dB
+     */
+    public double getMaxAppliedGainDb() {
+        return toDb(maxAppliedGain);
+    }
+
+    @Override
+    protected void process(byte[] pcm, int offset, int samples) {
+        float min = minAppliedGain;
+        float max = maxAppliedGain;
+        for (int start = 0; start < samples; start += blockSamples) {
+            int count = Math.min(blockSamples, samples - start);
+            int blockOffset = offset + 2 * start;
+            double level = PcmKernels.rms(pcm, blockOffset, count);
+
+            double targetGain = gain;
+            if (level > silenceLevel) {
+                targetGain = Math.max(1 / maxGain, Math.min(maxGain, targetLevel / level));
+            }
+            double coefficient = targetGain < gain ? attackCoefficient : releaseCoefficient;
+            float nextGain = (float) (gain + coefficient * (targetGain - gain));
+            //Neither end of the ramp may push the block's peak past full scale
+            int peak = PcmKernels.peak(pcm, blockOffset, count);
+            float limit = peak == 0 ? Float.MAX_VALUE : (float) Short.MAX_VALUE / peak;
+            float startGain = Math.min(gain, limit);
+            nextGain = Math.min(nextGain, limit);
+
+            PcmKernels.applyGain(pcm, blockOffset, count, startGain, nextGain);
+            gain = nextGain;
+            min = Math.min(min, gain);
+            max = Math.max(max, gain);
+        }
+        minAppliedGain = min;
+        maxAppliedGain = max;
+        currentGain = gain;
+    }
+
+    /**
+     * Fraction of the remaining distance to the target gain covered in one block, for a given time constant
+     */
+    private static double smoothingCoefficient(int timeMillis) {
+        return 1 - Math.exp(-(double) BLOCK_MS / timeMillis);
+    }
+
+    private static double fromDb(double db) {
+        return Math.pow(10, db / 20);
+    }
+
+    private static double toDb(float gain) {
+        return 20 * Math.log10(gain);
+    }
+}
@@ -27,8 +27,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -36,72 +42,392 @@ import java.util.concurrent.atomic.AtomicLong;
  * that can be sent to the Transcribe service. It implements a simple demand system that will read chunks of bytes
  * from an input stream containing audio data
  *
+ * All reads and signals to the subscriber happen inside a single drain loop. Calls to request(n) and cancel() only
+ * record demand or cancellation and make sure the loop is running, so bursts of demand never queue more than one
+ * task against the input stream, and onNext/onComplete/onError are always signalled serially. The loop runs on a
+ * shared executor (see AudioEmissionScheduler) and gives its thread back after a bounded batch of chunks, so
+ * many subscriptions can share a small pool.
+ *
+ * Chunks are read into buffers leased from an AudioBufferPool and handed back as soon as the AudioEvent has been
+ * built, since SdkBytes keeps its own copy of the bytes.
+ *
+ * Chunk processors such as gain control run on each chunk in place before its AudioEvent is built. With a FlacEncoder
+ * set, the AudioEvent carries the chunk encoded as FLAC.
+ *
+ * When an AudioPacer is set, the loop does not emit a chunk before the pacer allows it. Instead of sleeping on the
+ * shared thread it schedules itself to resume when the chunk is due.
+ *
+ * Live audio that implements NonBlockingAudioSource is polled rather than read: until a whole chunk has arrived, the
+ * loop schedules itself to look again after {@value #POLL_INTERVAL_MS} ms instead of blocking the shared thread.
+ *
  * To read more about how Subscriptions and reactive streams work, please see
  * https://github.com/reactive-streams/reactive-streams-jvm/blob/v1.0.2/README.md
  */
 public class ByteToAudioEventSubscription implements Subscription {
     private static final int CHUNK_SIZE_IN_BYTES = 1024 * 4;
-    private ExecutorService executor = Executors.newFixedThreadPool(1);
-    private AtomicLong demand = new AtomicLong(0);
+    private static final int MAX_CHUNKS_PER_RUN = 16;
+    private static final long POLL_INTERVAL_MS = 10;
+    private final ScheduledExecutorService executor;
+    private final AtomicLong demand = new AtomicLong(0);
+    private final AtomicInteger wip = new AtomicInteger(0);
+    private volatile boolean cancelled = false;
+    private volatile Throwable pendingError;
+    private AudioBufferPool bufferPool = AudioBufferPool.getDefault();
+    private ReadableByteChannel channel;
+    private AudioPacer pacer;
+    private List<AudioChunkProcessor> chunkProcessors = Collections.emptyList();
+    private FlacEncoder encoder;
+    private int chunkSizeInBytes = CHUNK_SIZE_IN_BYTES;
+    private int frameSize = 1;
+    private volatile long bytesRead = 0;
+    private byte[] pollScratch;
 
     private final Subscriber<? super AudioStream> subscriber;
     private final InputStream inputStream;
 
     public ByteToAudioEventSubscription(Subscriber<? super AudioStream> s, InputStream inputStream) {
+        this(s, inputStream, AudioEmissionScheduler.getDefault());
+    }
+
+    public ByteToAudioEventSubscription(Subscriber<? super AudioStream> s, InputStream inputStream,
+                                        ScheduledExecutorService executor) {
         this.subscriber = s;
         this.inputStream = inputStream;
+        this.executor = executor;
+    }
+
+    /**
+     * Set the pool chunk buffers are leased from. Must be called before the subscription is handed to the subscriber.
+     * @param bufferPool Pool of heap or direct buffers
+     */
+    public void setBufferPool(AudioBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Set the number of bytes read for each AudioEvent. Must be called before the subscription is handed to the
+     * subscriber.
+     * @param chunkSizeInBytes Chunk size, a whole number of audio frames
+     * @param frameSize Size of one audio frame. Short reads are topped up so every chunk ends on a frame boundary.
+     */
+    public void setChunkSize(int chunkSizeInBytes, int frameSize) {
+        if (frameSize <= 0 || chunkSizeInBytes < frameSize || chunkSizeInBytes % frameSize != 0) {
+            throw new IllegalArgumentException("Chunk size must be a positive number of frames");
+        }
+        this.chunkSizeInBytes = chunkSizeInBytes;
+        this.frameSize = frameSize;
+    }
+
+    /**
+     * Pace emitted chunks with the given pacer. Must be called before the subscription is handed to the subscriber.
+     * @param pacer Pacer deciding when each chunk may be emitted, or null to emit as fast as demand allows
+     */
+    public void setPacer(AudioPacer pacer) {
+        this.pacer = pacer;
+    }
+
+    /**
+     * Process every chunk in place with the given processors, in order. Must be called before the subscription is
+     * handed to the subscriber.
+     * @param chunkProcessors Processors to apply
+     */
+    public void setChunkProcessors(List<AudioChunkProcessor> chunkProcessors) {
+        this.chunkProcessors = chunkProcessors;
+    }
+
+    /**
+     * Encode every chunk as FLAC. The encoder writes the stream header ahead of the first chunk, so it must be new to
+     * this subscription. Must be called before the subscription is handed to the subscriber.
+     * @param encoder Encoder for this subscription, or null to send PCM
+     */
+    public void setEncoder(FlacEncoder encoder) {
+        this.encoder = encoder;
     }
 
     @Override
     public void request(long n) {
+        if (cancelled) {
+            return;
+        }
         if (n <= 0) {
-            subscriber.onError(new IllegalArgumentException("Demand must be positive"));
+            //Rule 3.9: signal the error from the drain loop so it stays serialized with onNext
+            pendingError = new IllegalArgumentException("Demand must be positive");
+        } else {
+            addDemand(n);
+        }
+        drain();
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Add to the outstanding demand, capping at Long.MAX_VALUE as required by rule 3.17
+     */
+    private void addDemand(long n) {
+        for (;;) {
+            long current = demand.get();
+            long updated = current + n;
+            if (updated < 0) {
+                updated = Long.MAX_VALUE;
+            }
+            if (demand.compareAndSet(current, updated)) {
+                return;
+            }
         }
+    }
 
-        demand.getAndAdd(n);
+    /**
+     * Start the drain loop unless one is already running. A running loop notices the extra work through the
+     * work-in-progress counter and keeps going instead.
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
         //We need to invoke this in a separate thread because the call to subscriber.onNext(...) is recursive
-        executor.submit(() -> {
-            try {
-                do {
-                    ByteBuffer audioBuffer = getNextEvent();
-                    if (audioBuffer.remaining() > 0) {
-                        AudioEvent audioEvent = audioEventFromBuffer(audioBuffer);
-                        subscriber.onNext(audioEvent);
-                    } else {
-                        subscriber.onComplete();
+        schedule();
+    }
+
+    private void schedule() {
+        schedule(0);
+    }
+
+    private void schedule(long delayNanos) {
+        try {
+            if (delayNanos > 0) {
+                executor.schedule(this::drainLoop, delayNanos, TimeUnit.NANOSECONDS);
+            } else {
+                executor.execute(this::drainLoop);
+            }
+        } catch (RejectedExecutionException e) {
+            //The shared scheduler is shutting down, so this stream can no longer make progress
+            cancelled = true;
+            subscriber.onError(e);
+        }
+    }
+
+    private void drainLoop() {
+        int missed = 1;
+        int emittedThisRun = 0;
+        for (;;) {
+            long requested = demand.get();
+            long emitted = 0L;
+            long pacingDelay = 0L;
+            boolean waitingForAudio = false;
+
+            while (true) {
+                if (cancelled) {
+                    return;
+                }
+                Throwable error = pendingError;
+                if (error != null) {
+                    terminate();
+                    subscriber.onError(error);
+                    return;
+                }
+                if (emitted == requested || emittedThisRun == MAX_CHUNKS_PER_RUN) {
+                    break;
+                }
+                if (pacer != null) {
+                    pacingDelay = pacer.nanosUntilNextChunk();
+                    if (pacingDelay > 0) {
                         break;
                     }
-                } while (demand.decrementAndGet() > 0);
-            } catch (Exception e) {
-                subscriber.onError(e);
+                }
+                ByteBuffer audioBuffer;
+                try {
+                    audioBuffer = getNextEvent();
+                } catch (Exception e) {
+                    terminate();
+                    subscriber.onError(e);
+                    return;
+                }
+                if (audioBuffer == null) {
+                    waitingForAudio = true;
+                    break;
+                }
+                if (audioBuffer.remaining() > 0) {
+                    bytesRead += audioBuffer.remaining();
+                    AudioEvent audioEvent;
+                    try {
+                        audioEvent = processedAudioEvent(audioBuffer);
+                    } catch (RuntimeException e) {
+                        bufferPool.release(audioBuffer);
+                        terminate();
+                        subscriber.onError(e);
+                        return;
+                    }
+                    if (pacer != null) {
+                        pacer.onChunkEmitted(audioBuffer.remaining());
+                    }
+                    bufferPool.release(audioBuffer);
+                    if (audioEvent == null) {
+                        //The encoder held the chunk back for the next one; an empty event would end the stream
+                        continue;
+                    }
+                    subscriber.onNext(audioEvent);
+                    emitted++;
+                    emittedThisRun++;
+                } else {
+                    bufferPool.release(audioBuffer);
+                    terminate();
+                    if (encoder != null) {
+                        ByteBuffer tail = encoder.flush();
+                        if (tail.hasRemaining()) {
+                            subscriber.onNext(audioEventFromBuffer(tail));
+                        }
+                    }
+                    subscriber.onComplete();
+                    return;
+                }
+            }
+
+            if (emitted != 0L && requested != Long.MAX_VALUE) {
+                demand.addAndGet(-emitted);
+            }
+            if (waitingForAudio) {
+                //Look again once more live audio may have arrived; the new run inherits the work-in-progress count
+                schedule(TimeUnit.MILLISECONDS.toNanos(POLL_INTERVAL_MS));
+                return;
+            }
+            if (pacingDelay > 0 || emittedThisRun == MAX_CHUNKS_PER_RUN) {
+                //Yield the shared thread to other streams; the new run inherits this loop's work-in-progress count
+                schedule(pacingDelay);
+                return;
             }
-        });
+            missed = wip.addAndGet(-missed);
+            if (missed == 0) {
+                return;
+            }
+        }
     }
 
-    @Override
-    public void cancel() {
-        executor.shutdown();
+    /**
+     * Mark the subscription as finished after a terminal signal. The work-in-progress counter is intentionally left
+     * non-zero so no further drain loop can be started.
+     */
+    private void terminate() {
+        cancelled = true;
+    }
+
+    /**
+     * @return Number of bytes of audio read for this subscription so far, before any processing or encoding
+     */
+    public long getBytesRead() {
+        return bytesRead;
     }
 
+    /**
+     * Read the next chunk of audio
+     * @return Buffer holding the chunk between its position and limit, an empty buffer at the end of the audio, or
+     * null if a non-blocking source has no whole chunk ready yet
+     */
     private ByteBuffer getNextEvent() {
-        ByteBuffer audioBuffer = null;
-        byte[] audioBytes = new byte[CHUNK_SIZE_IN_BYTES];
+        if (inputStream instanceof NonBlockingAudioSource) {
+            try {
+                return pollNextEvent((NonBlockingAudioSource) inputStream);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        ByteBuffer audioBuffer = bufferPool.lease(chunkSizeInBytes);
 
         try {
-            int len = inputStream.read(audioBytes);
-
-            if (len <= 0) {
-                audioBuffer = ByteBuffer.allocate(0);
-            } else {
-                audioBuffer = ByteBuffer.wrap(audioBytes, 0, len);
+            int len = read(audioBuffer);
+            //Top up short reads that stopped in the middle of a frame
+            while (len > 0 && len % frameSize != 0) {
+                audioBuffer.position(len);
+                audioBuffer.limit(len + frameSize - len % frameSize);
+                int more = read(audioBuffer);
+                if (more <= 0) {
+                    break;
+                }
+                len += more;
             }
+
+            audioBuffer.clear();
+            audioBuffer.limit(Math.max(len, 0));
         } catch (IOException e) {
+            bufferPool.release(audioBuffer);
             throw new UncheckedIOException(e);
         }
 
         return audioBuffer;
     }
 
+    /**
+     * Take a whole chunk from a non-blocking source, or the rest of its audio once it has ended
+     */
+    private ByteBuffer pollNextEvent(NonBlockingAudioSource source) throws IOException {
+        //Check for the end first, so the bytes available afterwards are all there will be
+        boolean ended = source.isEnded();
+        int ready = source.available();
+        if (ready < chunkSizeInBytes && !ended) {
+            return null;
+        }
+        int len = Math.min(ready, chunkSizeInBytes);
+        ByteBuffer audioBuffer = bufferPool.lease(chunkSizeInBytes);
+        byte[] target;
+        int offset;
+        if (audioBuffer.hasArray()) {
+            target = audioBuffer.array();
+            offset = audioBuffer.arrayOffset();
+        } else {
+            if (pollScratch == null) {
+                pollScratch = new byte[chunkSizeInBytes];
+            }
+            target = pollScratch;
+            offset = 0;
+        }
+        int filled = 0;
+        int n;
+        while (filled < len && (n = source.poll(target, offset + filled, len - filled)) > 0) {
+            filled += n;
+        }
+        if (!audioBuffer.hasArray()) {
+            audioBuffer.put(target, 0, filled);
+        }
+        audioBuffer.clear();
+        audioBuffer.limit(filled);
+        return audioBuffer;
+    }
+
+    private int read(ByteBuffer audioBuffer) throws IOException {
+        if (audioBuffer.hasArray()) {
+            return inputStream.read(audioBuffer.array(), audioBuffer.arrayOffset() + audioBuffer.position(),
+                    audioBuffer.remaining());
+        }
+        //Direct buffers are filled through a channel, which reads straight into them for file streams
+        if (channel == null) {
+            channel = Channels.newChannel(inputStream);
+        }
+        return channel.read(audioBuffer);
+    }
+
+    /**
+     * Run the chunk processors on a chunk and build its AudioEvent, or null if the encoder held the chunk back
+     */
+    private AudioEvent processedAudioEvent(ByteBuffer audioBuffer) {
+        for (int i = 0; i < chunkProcessors.size(); i++) {
+            chunkProcessors.get(i).process(audioBuffer);
+        }
+        return encodedAudioEvent(audioBuffer);
+    }
+
+    /**
+     * @return The chunk's AudioEvent, or null if the encoder held the whole chunk back
+     */
+    private AudioEvent encodedAudioEvent(ByteBuffer chunk) {
+        if (encoder == null) {
+            return audioEventFromBuffer(chunk);
+        }
+        ByteBuffer encoded = encoder.encode(chunk);
+        return encoded.hasRemaining() ? audioEventFromBuffer(encoded) : null;
+    }
+
     private AudioEvent audioEventFromBuffer(ByteBuffer bb) {
         return AudioEvent.builder()
                 .audioChunk(SdkBytes.fromByteBuffer(bb))
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.amazonaws.transcribestreaming;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Stream stage that runs chunk processors on audio as it is read, for processing that has to happen before a later
+ * stage rather than just before AudioEvents are built. For example, a high-pass filter ahead of voice activity
+ * detection keeps hum from being mistaken for speech.
+ *
+ * Audio is read in blocks of {@value #BLOCK_MS} ms into a buffer allocated once and processed in place there.
+ */
+public final class ChunkProcessingStream extends InputStream {
+
+    private static final int BLOCK_MS = 20;
+
+    private final InputStream in;
+    private final AudioChunkProcessor[] processors;
+    private final int frameSize;
+    private final byte[] block;
+    private final ByteBuffer chunk;
+    private int start = 0;
+    private int end = 0;
+    private int filled = 0;
+    private boolean eof = false;
+
+    private ChunkProcessingStream(InputStream in, AudioFormat format, AudioChunkProcessor[] processors) {
+        this.in = in;
+        this.processors = processors;
+        this.frameSize = AudioFormats.frameSize(format);
+        this.block = new byte[AudioFormats.bytesForDuration(format, BLOCK_MS)];
+        this.chunk = ByteBuffer.wrap(block);
+    }
+
+    /**
+     * Run processors on a stream
+     * @param source Audio in the format the processors expect
+     * @param processors Processors to apply, in order
+     * @return The processed stream, in the same format
+     */
+    public static AudioInputStream apply(AudioInputStream source, AudioChunkProcessor... processors) {
+        if (processors.length == 0) {
+            return source;
+        }
+        return new AudioInputStream(new ChunkProcessingStream(source, source.getFormat(), processors.clone()),
+                source.getFormat(), source.getFrameLength());
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        while (start == end) {
+            if (eof) {
+                return -1;
+            }
+            fill();
+        }
+        int count = Math.min(len, end - start);
+        System.arraycopy(block, start, b, off, count);
+        start += count;
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return end - start;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Read the next block and process its whole frames. A trailing partial frame is kept for the next block.
+     */
+    private void fill() throws IOException {
+        filled -= end;
+        System.arraycopy(block, end, block, 0, filled);
+        int read = in.read(block, filled, block.length - filled);
+        if (read < 0) {
+            eof = true;
+            read = 0;
+        }
+        filled += read;
+        start = 0;
+        end = filled - filled % frameSize;
+        if (end > 0) {
+            chunk.limit(end).position(0);
+            for (AudioChunkProcessor processor : processors) {
+                processor.process(chunk);
+            }
+        }
+    }
+}
@@ -0,0 +1,498 @@
+/*
+ * Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.amazonaws.transcribestreaming;
+
+import javax.sound.sampled.AudioFormat;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Streaming FLAC encoder for 16-bit signed little-endian PCM, used to shrink the audio sent over constrained links.
+ * FLAC is lossless, so the service transcribes exactly the same samples it would have received as PCM.
+ *
+ * Each chunk of PCM becomes one or more FLAC frames, and the first chunk is preceded by the stream header. Frames use
+ * variable block sizes, so chunks of any length can be encoded as they arrive. Only the last frame of a stream may
+ * hold fewer than {@value #MIN_BLOCK_SAMPLES} samples, so a shorter chunk, or what is left over, is held back and
+ * encoded with the next one, and {@link #flush()} encodes whatever is held back at the end. Each channel is encoded as a constant
+ * value when it is silent, or else with the fixed linear predictor that fits best and partitioned Rice coding of the
+ * residual, falling back to verbatim samples whenever that is smaller.
+ *
+ * The encoder measures its own cost. When encoding takes more than its CPU budget relative to the audio's duration, it
+ * stops searching for predictors and writes verbatim frames, which cost little more than copying PCM, until the cost
+ * drops again. All buffers are reused between chunks, so steady-state encoding does not allocate.
+ */
+public class FlacEncoder {
+
+    public static final double DEFAULT_CPU_BUDGET_PERCENT = 5;
+    private static final int MIN_BLOCK_SAMPLES = 16;
+    private static final int MAX_BLOCK_SAMPLES = 4608;
+    private static final int MAX_FIXED_ORDER = 4;
+    private static final int MAX_PARTITION_ORDER = 6;
+    private static final int MAX_RICE_PARAMETER = 14;
+    private static final int BITS_PER_SAMPLE = 16;
+    private static final double COST_SMOOTHING = 0.1;
+    private static final int[] CRC8_TABLE = new int[256];
+    private static final int[] CRC16_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc8 = i;
+            int crc16 = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc8 = (crc8 & 0x80) != 0 ? ((crc8 << 1) ^ 0x07) & 0xFF : (crc8 << 1) & 0xFF;
+                crc16 = (crc16 & 0x8000) != 0 ? ((crc16 << 1) ^ 0x8005) & 0xFFFF : (crc16 << 1) & 0xFFFF;
+            }
+            CRC8_TABLE[i] = crc8;
+            CRC16_TABLE[i] = crc16;
+        }
+    }
+
+    private final AudioFormat format;
+    private final int channels;
+    private final int frameSize;
+    private final byte[] heldBack;
+    private int heldBackBytes = 0;
+    private ByteBuffer joined = ByteBuffer.allocate(0);
+    private final int[] samples = new int[MAX_BLOCK_SAMPLES];
+    private final int[] residual = new int[MAX_BLOCK_SAMPLES];
+    private final long[] orderTotals = new long[MAX_FIXED_ORDER + 1];
+    private final double nanosPerSample;
+    private double cpuBudget = DEFAULT_CPU_BUDGET_PERCENT / 100;
+    private double smoothedCost = 0;
+    private byte[] out = new byte[0];
+    private ByteBuffer outBuffer = ByteBuffer.wrap(out);
+    private int outPosition;
+    private long bitBuffer;
+    private int bitCount;
+    private boolean headerWritten = false;
+    private long sampleNumber = 0;
+    private long bytesIn = 0;
+    private long bytesOut = 0;
+    private long encodeNanos = 0;
+    private long verbatimFrames = 0;
+
+    /**
+     * @param format Format of the audio, 16-bit signed little-endian PCM with up to 8 channels
+     */
+    public FlacEncoder(AudioFormat format) {
+        if (!PcmFormatConverter.isPcm16(format) || format.getChannels() > 8) {
+            throw new IllegalArgumentException("FLAC encoding requires 16-bit little-endian PCM with up to 8 channels: "
+                    + format);
+        }
+        this.format = format;
+        this.channels = format.getChannels();
+        this.frameSize = 2 * channels;
+        this.heldBack = new byte[(MIN_BLOCK_SAMPLES - 1) * frameSize];
+        this.nanosPerSample = 1e9 / format.getSampleRate();
+    }
+
+    /**
+     * Set how much CPU time the encoder may spend, relative to the duration of the audio it encodes, before it falls
+     * back to verbatim frames
+     * @param cpuBudgetPercent Budget in percent of real time, e.g. 5 for 50 ms of encoding per second of audio
+     */
+    public void setCpuBudget(double cpuBudgetPercent) {
+        this.cpuBudget = cpuBudgetPercent / 100;
+    }
+
+    /**
+     * Encode a chunk of PCM
+     * @param pcm Buffer holding whole frames of PCM between its position and limit, which are left unchanged
+     * @return Buffer holding the encoded bytes, only valid until the next call. It is empty if the whole chunk was
+     * held back because it was too short for a frame.
+     */
+    public ByteBuffer encode(ByteBuffer pcm) {
+        return encode(pcm, false);
+    }
+
+    /**
+     * Encode the audio held back from previous chunks as the last frame of the stream
+     * @return Buffer holding the encoded bytes, empty if nothing was held back, only valid until the next call
+     */
+    public ByteBuffer flush() {
+        if (heldBackBytes == 0) {
+            outBuffer.limit(0).position(0);
+            return outBuffer;
+        }
+        return encode(ByteBuffer.wrap(heldBack, 0, 0), true);
+    }
+
+    private ByteBuffer encode(ByteBuffer pcm, boolean last) {
+        long start = System.nanoTime();
+        ByteBuffer input = pcm;
+        if (heldBackBytes > 0) {
+            int length = heldBackBytes + pcm.remaining();
+            if (joined.capacity() < length) {
+                joined = ByteBuffer.allocate(length);
+            }
+            joined.clear();
+            joined.put(heldBack, 0, heldBackBytes).put(pcm.duplicate()).flip();
+            input = joined;
+            heldBackBytes = 0;
+        }
+        int frames = input.remaining() / frameSize;
+        if (frames < MIN_BLOCK_SAMPLES && !last) {
+            input.duplicate().get(heldBack, 0, frames * frameSize);
+            heldBackBytes = frames * frameSize;
+            frames = 0;
+        }
+        ensureCapacity(frames);
+        outPosition = 0;
+        if (!headerWritten) {
+            writeStreamHeader();
+            headerWritten = true;
+        }
+        boolean verbatim = smoothedCost > cpuBudget;
+        //Split evenly rather than leave a short block at the end
+        int blocks = (frames + MAX_BLOCK_SAMPLES - 1) / MAX_BLOCK_SAMPLES;
+        int first = 0;
+        for (int block = 0; block < blocks; block++) {
+            int blockSize = (frames - first) / (blocks - block);
+            writeFrame(input, input.position() + first * frameSize, blockSize, verbatim);
+            first += blockSize;
+        }
+        long elapsed = System.nanoTime() - start;
+        if (frames > 0) {
+            double cost = elapsed / (frames * nanosPerSample);
+            smoothedCost += COST_SMOOTHING * (cost - smoothedCost);
+        }
+        synchronized (this) {
+            bytesIn += frames * frameSize;
+            bytesOut += outPosition;
+            encodeNanos += elapsed;
+        }
+        outBuffer.limit(outPosition).position(0);
+        return outBuffer;
+    }
+
+    /**
+     * @return The media encoding name to put on a transcription request for this encoder's output
+     */
+    public static String getMediaEncoding() {
+        return "flac";
+    }
+
+    /**
+     * @return PCM bytes in divided by FLAC bytes out, or 0 if nothing was encoded yet
+     */
+    public synchronized double getCompressionRatio() {
+        return bytesOut == 0 ? 0 : (double) bytesIn / bytesOut;
+    }
+
+    /**
+     * @return Time spent encoding as a percentage of the duration of the audio encoded
+     */
+    public synchronized double getEncodeCostPercent() {
+        double audioNanos = bytesIn / (2.0 * channels) * nanosPerSample;
+        return audioNanos == 0 ? 0 : 100 * encodeNanos / audioNanos;
+    }
+
+    /**
+     * @return Number of frames written verbatim because the encoder was over its CPU budget
+     */
+    public synchronized long getVerbatimFrames() {
+        return verbatimFrames;
+    }
+
+    private void ensureCapacity(int frames) {
+        //Verbatim frames are the worst case, plus a generous allowance for headers
+        int worstCase = frames * channels * 2 + (frames / MAX_BLOCK_SAMPLES + 1) * (32 + channels * 8) + 64;
+        if (out.length < worstCase) {
+            out = new byte[worstCase];
+            outBuffer = ByteBuffer.wrap(out);
+        }
+    }
+
+    /**
+     * Write the "fLaC" marker and a STREAMINFO block. Frame sizes, total samples and the MD5 signature are unknown
+     * for a live stream and left as zero, which the format allows.
+     */
+    private void writeStreamHeader() {
+        writeBits(0x664C6143, 32); //"fLaC"
+        writeBits(1, 1); //Last metadata block
+        writeBits(0, 7); //STREAMINFO
+        writeBits(34, 24);
+        writeBits(MIN_BLOCK_SAMPLES, 16); //Minimum block size, which only the last block may go below
+        writeBits(MAX_BLOCK_SAMPLES, 16);
+        writeBits(0, 24); //Minimum frame size
+        writeBits(0, 24); //Maximum frame size
+        writeBits(Math.round(format.getSampleRate()), 20);
+        writeBits(channels - 1, 3);
+        writeBits(BITS_PER_SAMPLE - 1, 5);
+        writeBits(0, 4); //Total samples, 36 bits
+        writeBits(0, 32);
+        for (int i = 0; i < 4; i++) {
+            writeBits(0, 32); //MD5 signature
+        }
+    }
+
+    private void writeFrame(ByteBuffer pcm, int offset, int blockSize, boolean verbatim) {
+        int frameStart = outPosition;
+        writeBits(0x3FFE, 14); //Sync code
+        writeBits(0, 1);
+        writeBits(1, 1); //Variable block size, so the header carries the sample number
+        writeBits(0x7, 4); //Block size minus one follows as 16 bits
+        writeBits(0, 4); //Sample rate from STREAMINFO
+        writeBits(channels - 1, 4); //Independent channels
+        writeBits(0x4, 3); //16 bits per sample
+        writeBits(0, 1);
+        writeUtf8(sampleNumber);
+        writeBits(blockSize - 1, 16);
+        writeBits(crc8(out, frameStart, outPosition), 8);
+
+        for (int channel = 0; channel < channels; channel++) {
+            for (int i = 0; i < blockSize; i++) {
+                int pos = offset + (i * channels + channel) * 2;
+                samples[i] = (short) ((pcm.get(pos) & 0xFF) | (pcm.get(pos + 1) << 8));
+            }
+            writeSubframe(blockSize, verbatim);
+        }
+        if (bitCount > 0) {
+            writeBits(0, 8 - bitCount);
+        }
+        int crc = crc16(out, frameStart, outPosition);
+        writeBits(crc, 16);
+        sampleNumber += blockSize;
+        if (verbatim) {
+            synchronized (this) {
+                verbatimFrames++;
+            }
+        }
+    }
+
+    private void writeSubframe(int blockSize, boolean verbatim) {
+        boolean constant = true;
+        for (int i = 1; i < blockSize && constant; i++) {
+            constant = samples[i] == samples[0];
+        }
+        if (constant) {
+            writeBits(0, 8); //CONSTANT
+            writeBits(samples[0], BITS_PER_SAMPLE);
+            return;
+        }
+        int order = verbatim ? -1 : bestFixedOrder(blockSize);
+        if (order >= 0) {
+            computeResidual(blockSize, order);
+            int partitionOrder = bestPartitionOrder(blockSize, order);
+            long riceBits = riceBits(blockSize, order, partitionOrder) + order * BITS_PER_SAMPLE;
+            if (riceBits < (long) blockSize * BITS_PER_SAMPLE) {
+                writeBits((0x08 | order) << 1, 8); //FIXED with the given order
+                for (int i = 0; i < order; i++) {
+                    writeBits(samples[i], BITS_PER_SAMPLE);
+                }
+                writeResidual(blockSize, order, partitionOrder);
+                return;
+            }
+        }
+        writeBits(0x2, 8); //VERBATIM
+        for (int i = 0; i < blockSize; i++) {
+            writeBits(samples[i], BITS_PER_SAMPLE);
+        }
+    }
+
+    /**
+     * Pick the fixed predictor order with the smallest total absolute residual
+     * @return Order from 0 to 4, or -1 if the block is too short for any predictor to pay off
+     */
+    private int bestFixedOrder(int blockSize) {
+        if (blockSize <= MAX_FIXED_ORDER) {
+            return -1;
+        }
+        long[] totals = orderTotals;
+        Arrays.fill(totals, 0);
+        for (int i = MAX_FIXED_ORDER; i < blockSize; i++) {
+            int e0 = samples[i];
+            int e1 = e0 - samples[i - 1];
+            int e2 = e1 - (samples[i - 1] - samples[i - 2]);
+            int e3 = e2 - (samples[i - 1] - 2 * samples[i - 2] + samples[i - 3]);
+            int e4 = e3 - (samples[i - 1] - 3 * samples[i - 2] + 3 * samples[i - 3] - samples[i - 4]);
+            totals[0] += Math.abs(e0);
+            totals[1] += Math.abs(e1);
+            totals[2] += Math.abs(e2);
+            totals[3] += Math.abs(e3);
+            totals[4] += Math.abs(e4);
+        }
+        int best = 0;
+        for (int order = 1; order <= MAX_FIXED_ORDER; order++) {
+            if (totals[order] < totals[best]) {
+                best = order;
+            }
+        }
+        return best;
+    }
+
+    private void computeResidual(int blockSize, int order) {
+        for (int i = order; i < blockSize; i++) {
+            int prediction;
+            switch (order) {
+                case 0:
+                    prediction = 0;
+                    break;
+                case 1:
+                    prediction = samples[i - 1];
+                    break;
+                case 2:
+                    prediction = 2 * samples[i - 1] - samples[i - 2];
+                    break;
+                case 3:
+                    prediction = 3 * samples[i - 1] - 3 * samples[i - 2] + samples[i - 3];
+                    break;
+                default:
+                    prediction = 4 * samples[i - 1] - 6 * samples[i - 2] + 4 * samples[i - 3] - samples[i - 4];
+                    break;
+            }
+            residual[i] = samples[i] - prediction;
+        }
+    }
+
+    /**
+     * Pick the partition order with the smallest Rice coded size
+     */
+    private int bestPartitionOrder(int blockSize, int order) {
+        int best = 0;
+        long bestBits = Long.MAX_VALUE;
+        for (int partitionOrder = 0; partitionOrder <= MAX_PARTITION_ORDER; partitionOrder++) {
+            if (blockSize % (1 << partitionOrder) != 0 || (blockSize >> partitionOrder) <= order) {
+                break;
+            }
+            long bits = riceBits(blockSize, order, partitionOrder);
+            if (bits < bestBits) {
+                bestBits = bits;
+                best = partitionOrder;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return Size in bits of the residual coded with the given partition order, including its headers
+     */
+    private long riceBits(int blockSize, int order, int partitionOrder) {
+        long bits = 2 + 4;
+        int partitionSize = blockSize >> partitionOrder;
+        for (int partition = 0, start = order; partition < (1 << partitionOrder); partition++) {
+            int end = (partition + 1) * partitionSize;
+            int parameter = riceParameter(start, end);
+            bits += 4 + partitionBits(start, end, parameter);
+            start = end;
+        }
+        return bits;
+    }
+
+    private long partitionBits(int start, int end, int parameter) {
+        long bits = (long) (end - start) * (parameter + 1);
+        for (int i = start; i < end; i++) {
+            bits += zigzag(residual[i]) >>> parameter;
+        }
+        return bits;
+    }
+
+    /**
+     * Estimate the best Rice parameter from the mean of the zigzag-coded residuals
+     */
+    private int riceParameter(int start, int end) {
+        if (end <= start) {
+            return 0;
+        }
+        long sum = 0;
+        for (int i = start; i < end; i++) {
+            sum += zigzag(residual[i]);
+        }
+        long mean = sum / (end - start);
+        int parameter = 0;
+        while (parameter < MAX_RICE_PARAMETER && (1L << (parameter + 1)) <= mean) {
+            parameter++;
+        }
+        return parameter;
+    }
+
+    private void writeResidual(int blockSize, int order, int partitionOrder) {
+        writeBits(0, 2); //Rice coding with 4-bit parameters
+        writeBits(partitionOrder, 4);
+        int partitionSize = blockSize >> partitionOrder;
+        for (int partition = 0, start = order; partition < (1 << partitionOrder); partition++) {
+            int end = (partition + 1) * partitionSize;
+            int parameter = riceParameter(start, end);
+            writeBits(parameter, 4);
+            for (int i = start; i < end; i++) {
+                int value = zigzag(residual[i]);
+                int quotient = value >>> parameter;
+                while (quotient >= 32) {
+                    writeBits(0, 32);
+                    quotient -= 32;
+                }
+                writeBits(1, quotient + 1);
+                if (parameter > 0) {
+                    writeBits(value, parameter);
+                }
+            }
+            start = end;
+        }
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    /**
+     * Write a number in the UTF-8-like variable length coding FLAC frame headers use
+     */
+    private void writeUtf8(long value) {
+        if (value < 0x80) {
+            writeBits((int) value, 8);
+            return;
+        }
+        int bytes = 2;
+        while (bytes < 7 && value >= (1L << (5 * bytes + 1))) {
+            bytes++;
+        }
+        int firstBits = bytes == 7 ? 0 : 7 - bytes;
+        int lead = (0xFF00 >> bytes) & 0xFF;
+        writeBits(lead | (int) (value >>> (6 * (bytes - 1))) & ((1 << firstBits) - 1), 8);
+        for (int i = bytes - 2; i >= 0; i--) {
+            writeBits(0x80 | (int) (value >>> (6 * i)) & 0x3F, 8);
+        }
+    }
+
+    /**
+     * Append the low bits of a value, most significant bit first
+     */
+    private void writeBits(int value, int bits) {
+        bitBuffer = (bitBuffer << bits) | (value & (0xFFFFFFFFL >>> (32 - bits)));
+        bitCount += bits;
+        while (bitCount >= 8) {
+            bitCount -= 8;
+            out[outPosition++] = (byte) (bitBuffer >>> bitCount);
+        }
+    }
+
+    private static int crc8(byte[] data, int from, int to) {
+        int crc = 0;
+        for (int i = from; i < to; i++) {
+            crc = CRC8_TABLE[crc ^ (data[i] & 0xFF)];
+        }
+        return crc;
+    }
+
+    private static int crc16(byte[] data, int from, int to) {
+        int crc = 0;
+        for (int i = from; i < to; i++) {
+            crc = ((crc << 8) & 0xFFFF) ^ CRC16_TABLE[(crc >>> 8) ^ (data[i] & 0xFF)];
+        }
+        return crc;
+    }
+}
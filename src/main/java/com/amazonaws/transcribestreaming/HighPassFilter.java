@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.amazonaws.transcribestreaming;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Fourth-order Butterworth high-pass filter for 16-bit signed little-endian mono PCM, built from two cascaded biquads.
+ * It removes mains hum, rumble and DC offset below the cutoff, which carry no speech but inflate the energy voice
+ * activity detection sees and the bytes a compressed stream needs.
+ *
+ * The filter state carries over between chunks, so chunk boundaries are seamless.
+ */
+public class HighPassFilter extends Pcm16ChunkProcessor {
+
+    public static final int DEFAULT_CUTOFF_HZ = 100;
+    //Quality factors of the two sections of a fourth-order Butterworth filter
+    private static final double[] SECTION_Q = {0.5412, 1.3066};
+
+    //Per section: b0, b1, b2, a1, a2, normalized so a0 is 1
+    private final double[][] coefficients = new double[SECTION_Q.length][5];
+    //Per section: direct form II transposed state
+    private final double[][] state = new double[SECTION_Q.length][2];
+
+    /**
+     * @param format Format of the audio, 16-bit little-endian mono PCM
+     */
+    public HighPassFilter(AudioFormat format) {
+        this(format, DEFAULT_CUTOFF_HZ);
+    }
+
+    /**
+     * @param format Format of the audio, 16-bit little-endian mono PCM
+     * @param cutoffHz Frequency below which audio is attenuated, at 24 dB per octave
+     */
+    public HighPassFilter(AudioFormat format, int cutoffHz) {
+        if (!PcmFormatConverter.isPcm16Mono(format)) {
+            throw new IllegalArgumentException("High-pass filtering requires 16-bit little-endian mono PCM: " + format);
+        }
+        if (cutoffHz <= 0 || cutoffHz >= format.getSampleRate() / 2) {
+            throw new IllegalArgumentException("Cutoff must be between 0 Hz and half the sample rate");
+        }
+        double w0 = 2 * Math.PI * cutoffHz / format.getSampleRate();
+        double cos = Math.cos(w0);
+        for (int section = 0; section < SECTION_Q.length; section++) {
+            double alpha = Math.sin(w0) / (2 * SECTION_Q[section]);
+            double a0 = 1 + alpha;
+            double[] c = coefficients[section];
+            c[0] = (1 + cos) / 2 / a0;
+            c[1] = -(1 + cos) / a0;
+            c[2] = (1 + cos) / 2 / a0;
+            c[3] = -2 * cos / a0;
+            c[4] = (1 - alpha) / a0;
+        }
+    }
+
+    @Override
+    protected void process(byte[] pcm, int offset, int samples) {
+        for (int section = 0; section < SECTION_Q.length; section++) {
+            PcmKernels.biquad(pcm, offset, samples, coefficients[section], state[section]);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.transcribestreaming;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.TargetDataLine;
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Captures audio from a TargetDataLine on a dedicated thread and writes it into an AudioRingBuffer. The publisher
+ * reads from the ring instead of from the line, so however long emission stalls, the capture thread keeps draining
+ * the line and the device buffer never overruns; if the ring itself fills up, the overflow is counted. The publisher
+ * polls the ring, so waiting for the next chunk of live audio does not hold one of the shared emission threads.
+ *
+ * With a pre-roll, the capture is always on: it keeps the most recent audio in a history buffer even while nothing is
+ * streaming, and every stream opened with {@link #getInputStream()} starts with that history before continuing with
+ * live audio. Words spoken just before a session is started are not lost, and nothing is lost while the line opens
+ * because it is already open. Since the microphone stream is not paced, the pre-roll is sent as fast as the service
+ * accepts it, and the stream catches up with live audio shortly after connecting.
+ */
+public class MicrophoneCapture implements Closeable {
+
+    public static final int DEFAULT_BUFFER_MS = 5000;
+    private static final int CAPTURE_CHUNK_MS = 20;
+
+    private final TargetDataLine line;
+    private final int bufferSize;
+    private final Thread captureThread;
+    private final Object sessionLock = new Object();
+    private final byte[] history;
+    private int historyEnd = 0;
+    private boolean historyFull = false;
+    private volatile AudioRingBuffer ring;
+    private final AtomicLong lineOverruns = new AtomicLong(0);
+    private volatile boolean running = true;
+
+    /**
+     * Start capturing from an open line, buffering up to {@value #DEFAULT_BUFFER_MS} ms of audio
+     * @param line An open TargetDataLine. The capture starts the line and closes it when done.
+     */
+    public MicrophoneCapture(TargetDataLine line) {
+        this(line, DEFAULT_BUFFER_MS);
+    }
+
+    /**
+     * Start capturing from an open line
+     * @param line An open TargetDataLine. The capture starts the line and closes it when done.
+     * @param bufferMillis How much audio the ring buffer between the line and the publisher can hold
+     */
+    public MicrophoneCapture(TargetDataLine line, int bufferMillis) {
+        this(line, bufferMillis, 0);
+    }
+
+    /**
+     * Start capturing from an open line, keeping a pre-roll of recent audio for every stream opened on it
+     * @param line An open TargetDataLine. The capture starts the line and closes it when done.
+     * @param bufferMillis How much audio the ring buffer between the line and the publisher can hold
+     * @param preRollMillis How much audio from before a stream is opened it starts with, or 0 for none. With a
+     *                      pre-roll, closing a stream leaves the capture running for the next one.
+     */
+    public MicrophoneCapture(TargetDataLine line, int bufferMillis, int preRollMillis) {
+        this.line = line;
+        this.bufferSize = AudioFormats.bytesForDuration(line.getFormat(), bufferMillis);
+        this.history = new byte[preRollMillis > 0 ? AudioFormats.bytesForDuration(line.getFormat(), preRollMillis) : 0];
+        this.ring = history.length > 0 ? null : new AudioRingBuffer(bufferSize);
+        this.captureThread = new Thread(this::capture, "microphone-capture");
+        this.captureThread.setDaemon(true);
+        line.start();
+        captureThread.start();
+    }
+
+    /**
+     * @return Stream of the captured audio. Without a pre-roll, closing it stops the capture. With a pre-roll, each call
+     * opens a new stream starting with the pre-roll and replacing any previous stream, and closing it only detaches it.
+     */
+    public AudioInputStream getInputStream() {
+        if (history.length == 0) {
+            return ring.getAudioInputStream(line.getFormat());
+        }
+        //The session ring starts with the pre-roll, so it needs room for it on top of the live buffer
+        AudioRingBuffer sessionRing = new AudioRingBuffer(bufferSize + history.length);
+        synchronized (sessionLock) {
+            //Taking the snapshot and attaching the ring together means no audio is missed or repeated between them
+            byte[] preRoll = snapshotHistory();
+            sessionRing.write(preRoll, 0, preRoll.length);
+            AudioRingBuffer previous = ring;
+            if (previous != null) {
+                previous.close();
+            }
+            ring = sessionRing;
+        }
+        return sessionRing.getAudioInputStream(line.getFormat());
+    }
+
+    /**
+     * @return Format of the captured audio
+     */
+    public AudioFormat getFormat() {
+        return line.getFormat();
+    }
+
+    /**
+     * @return Ring buffer between the capture thread and the current stream, for fill level and overrun metrics, or
+     * null if no stream is open on an always-on capture. A closed stream is detached with the next captured chunk.
+     */
+    public AudioRingBuffer getRingBuffer() {
+        return ring;
+    }
+
+    /**
+     * @return Number of times the line's own buffer was found full, meaning the device may have dropped frames
+     */
+    public long getLineOverruns() {
+        return lineOverruns.get();
+    }
+
+    /**
+     * Stop capturing. Audio already in the ring can still be read, after which the stream ends.
+     */
+    @Override
+    public void close() {
+        running = false;
+        line.stop();
+        line.close();
+        AudioRingBuffer current = ring;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    private void capture() {
+        int frameSize = AudioFormats.frameSize(line.getFormat());
+        byte[] chunk = new byte[AudioFormats.bytesForDuration(line.getFormat(), CAPTURE_CHUNK_MS)];
+        int lineBufferSize = line.getBufferSize();
+        try {
+            while (running && (history.length > 0 || !ring.isClosed())) {
+                if (line.available() >= lineBufferSize) {
+                    lineOverruns.incrementAndGet();
+                }
+                int len = line.read(chunk, 0, chunk.length - chunk.length % frameSize);
+                if (len <= 0) {
+                    if (!line.isOpen()) {
+                        break;
+                    }
+                    continue;
+                }
+                if (history.length == 0) {
+                    ring.write(chunk, 0, len);
+                } else {
+                    synchronized (sessionLock) {
+                        appendHistory(chunk, len);
+                        AudioRingBuffer current = ring;
+                        if (current != null && current.isClosed()) {
+                            //The session's stream was closed, so detach it until the next one is opened
+                            ring = null;
+                        } else if (current != null) {
+                            current.write(chunk, 0, len);
+                        }
+                    }
+                }
+            }
+        } finally {
+            if (running) {
+                close();
+            }
+        }
+    }
+
+    private void appendHistory(byte[] chunk, int len) {
+        int offset = 0;
+        if (len > history.length) {
+            offset = len - history.length;
+            len = history.length;
+        }
+        int first = Math.min(len, history.length - historyEnd);
+        System.arraycopy(chunk, offset, history, historyEnd, first);
+        System.arraycopy(chunk, offset + first, history, 0, len - first);
+        historyFull |= historyEnd + len >= history.length;
+        historyEnd = (historyEnd + len) % history.length;
+    }
+
+    /**
+     * @return Copy of the history, oldest audio first
+     */
+    private byte[] snapshotHistory() {
+        if (!historyFull) {
+            byte[] copy = new byte[historyEnd];
+            System.arraycopy(history, 0, copy, 0, historyEnd);
+            return copy;
+        }
+        byte[] copy = new byte[history.length];
+        System.arraycopy(history, historyEnd, copy, 0, history.length - historyEnd);
+        System.arraycopy(history, 0, copy, history.length - historyEnd, historyEnd);
+        return copy;
+    }
+}
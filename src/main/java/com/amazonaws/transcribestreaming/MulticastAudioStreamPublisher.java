@@ -0,0 +1,535 @@
+/*
+ * Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.transcribestreaming;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.transcribestreaming.model.AudioEvent;
+import software.amazon.awssdk.services.transcribestreaming.model.AudioStream;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A publisher that reads each chunk of audio once and shares it with any number of subscribers, so the same
+ * microphone or file can feed several transcription sessions (for example one per language code) without being
+ * opened or read more than once. Every AudioEvent is built once and the same immutable event is handed to all
+ * subscribers.
+ *
+ * Each subscriber has its own demand. The source is read while any subscriber wants more audio; chunks a subscriber
+ * has not requested yet are queued for it, up to a bounded lag. A subscriber that falls further behind is handled
+ * according to the {@link SlowSubscriberPolicy}. Subscribers joining later receive live audio from that point on. The
+ * same goes for a session that TranscribeStreamingRetryClient retries: it subscribes again and picks up the audio
+ * being read at that moment, so audio read while it was down is not transcribed. Use ReplayableAudioStreamPublisher
+ * for a single stream that must resume without a gap.
+ *
+ * Subscribers of a {@link #channel(int)} view receive a single channel of multi-channel audio as mono, for example
+ * the agent and customer sides of a stereo call on separate sessions. The source is still read once; each channel's
+ * samples are gathered straight from the shared chunk into the event, once per chunk for all subscribers of that
+ * channel, so no split copy of the audio is ever made.
+ *
+ * All signals happen in one drain loop on the shared AudioEmissionScheduler, as in ByteToAudioEventSubscription.
+ * The loop never blocks on the source. A NonBlockingAudioSource is polled directly. Any other source is read ahead by
+ * a thread of the publisher's own into a ring of a few chunks, which waits for room, so a file is still read no
+ * faster than the subscribers take it. While a whole chunk has not arrived yet, the loop looks again after
+ * {@value #POLL_INTERVAL_MS} ms.
+ */
+public class MulticastAudioStreamPublisher implements Publisher<AudioStream> {
+
+    public static final int DEFAULT_MAX_LAG_CHUNKS = 50;
+    private static final int MAX_CHUNKS_PER_RUN = 16;
+    private static final long POLL_INTERVAL_MS = 10;
+    private static final int READ_AHEAD_CHUNKS = 4;
+
+    /**
+     * What to do with a subscriber whose queue of undelivered chunks reaches the maximum lag
+     */
+    public enum SlowSubscriberPolicy {
+        /** Drop the subscriber's oldest queued chunk to make room for the new one */
+        DROP_OLDEST,
+        /** Signal an error to the subscriber and stop sending it audio */
+        DISCONNECT
+    }
+
+    private final InputStream source;
+    private final AudioFormat format;
+    private final int chunkSizeInBytes;
+    private final int frameSize;
+    private final AudioEvent[] channelEvents;
+    private final ScheduledExecutorService executor;
+    private final List<Connection> connections = new CopyOnWriteArrayList<>();
+    private final AtomicInteger wip = new AtomicInteger(0);
+    private final AtomicLong droppedChunks = new AtomicLong(0);
+    private final AtomicLong disconnectedSubscribers = new AtomicLong(0);
+    private final AtomicInteger subscriberCount = new AtomicInteger(0);
+    private volatile int expectedSubscribers = 0;
+    private AudioBufferPool bufferPool = AudioBufferPool.getDefault();
+    private int maxLagChunks = DEFAULT_MAX_LAG_CHUNKS;
+    private SlowSubscriberPolicy slowSubscriberPolicy = SlowSubscriberPolicy.DROP_OLDEST;
+    private boolean sourceDone = false;
+    private Throwable sourceError;
+    private NonBlockingAudioSource pollableSource;
+    private byte[] pollScratch;
+    private volatile Throwable readAheadError;
+    private volatile Throwable schedulerError;
+
+    /**
+     * @param source Audio to share between subscribers
+     * @param format Format of the audio, used to size chunks
+     */
+    public MulticastAudioStreamPublisher(InputStream source, AudioFormat format) {
+        this(source, format, AudioEmissionScheduler.getDefault());
+    }
+
+    /**
+     * @param source Audio to share between subscribers
+     * @param format Format of the audio, used to size chunks
+     * @param executor Scheduler to read and emit audio on, instead of the shared AudioEmissionScheduler
+     */
+    public MulticastAudioStreamPublisher(InputStream source, AudioFormat format, ScheduledExecutorService executor) {
+        this.source = source;
+        this.format = format;
+        this.chunkSizeInBytes = AudioFormats.bytesForDuration(format, AudioStreamPublisher.DEFAULT_CHUNK_DURATION_MS);
+        this.frameSize = AudioFormats.frameSize(format);
+        this.channelEvents = new AudioEvent[format.getChannels()];
+        this.executor = executor;
+    }
+
+    /**
+     * Set how far a subscriber may fall behind and what happens when it does
+     * @param maxLagChunks Maximum number of chunks queued for a subscriber that has not requested them
+     * @param policy What to do with a subscriber that exceeds the lag
+     */
+    public void setSlowSubscriberPolicy(int maxLagChunks, SlowSubscriberPolicy policy) {
+        if (maxLagChunks <= 0) {
+            throw new IllegalArgumentException("Maximum lag must be positive");
+        }
+        this.maxLagChunks = maxLagChunks;
+        this.slowSubscriberPolicy = policy;
+    }
+
+    /**
+     * Hold off reading the source until the given number of subscribers have subscribed, so sessions started one after
+     * another all receive the audio from its beginning
+     * @param expectedSubscribers Number of subscribers to wait for
+     */
+    public void setExpectedSubscribers(int expectedSubscribers) {
+        this.expectedSubscribers = expectedSubscribers;
+    }
+
+    /**
+     * Set the pool chunk buffers are leased from
+     * @param bufferPool Pool of heap or direct buffers
+     */
+    public void setBufferPool(AudioBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * @return Number of chunks dropped for slow subscribers under the DROP_OLDEST policy
+     */
+    public long getDroppedChunks() {
+        return droppedChunks.get();
+    }
+
+    /**
+     * @return Number of subscribers disconnected for falling behind under the DISCONNECT policy
+     */
+    public long getDisconnectedSubscribers() {
+        return disconnectedSubscribers.get();
+    }
+
+    /**
+     * @return The shared audio source
+     */
+    public InputStream getInputStream() {
+        return source;
+    }
+
+    /**
+     * Get a view of the shared stream carrying a single channel as mono audio. Like every subscriber of this publisher,
+     * a session that is retried on the view continues with live audio, not from where it failed.
+     * @param channel Zero-based channel index, e.g. 0 for the left and 1 for the right channel of stereo audio
+     * @return Publisher of the channel's audio, sharing this publisher's source, demand handling and lag policy
+     */
+    public Publisher<AudioStream> channel(int channel) {
+        if (channel < 0 || channel >= channelEvents.length) {
+            throw new IllegalArgumentException("No channel " + channel + " in " + format);
+        }
+        return s -> subscribe(s, channel);
+    }
+
+    /**
+     * @param channel Zero-based channel index
+     * @return Format of the audio published by {@link #channel(int)}
+     */
+    public AudioFormat getChannelFormat(int channel) {
+        return new AudioFormat(format.getEncoding(), format.getSampleRate(), format.getSampleSizeInBits(), 1,
+                frameSize / channelEvents.length, format.getFrameRate(), format.isBigEndian());
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super AudioStream> s) {
+        subscribe(s, -1);
+    }
+
+    private void subscribe(Subscriber<? super AudioStream> s, int channel) {
+        Connection connection = new Connection(s, channel);
+        //onSubscribe comes first, so the drain loop cannot signal the subscriber before it has its subscription
+        s.onSubscribe(connection);
+        connections.add(connection);
+        if (connection.cancelled) {
+            connections.remove(connection);
+        }
+        subscriberCount.incrementAndGet();
+        //Demand requested from onSubscribe found the connection missing, and a new subscriber may open the gate
+        drain();
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        schedule(0);
+    }
+
+    private void schedule(long delayNanos) {
+        try {
+            if (delayNanos > 0) {
+                executor.schedule(this::drainLoop, delayNanos, TimeUnit.NANOSECONDS);
+            } else {
+                executor.execute(this::drainLoop);
+            }
+        } catch (RejectedExecutionException e) {
+            //The shared scheduler is shutting down, so no subscriber can make progress. Whoever schedules holds the
+            //work-in-progress count, so the loop is run right here to fail every subscriber through it, serially.
+            schedulerError = e;
+            drainLoop();
+        }
+    }
+
+    private void drainLoop() {
+        int missed = 1;
+        int chunksThisRun = 0;
+        for (;;) {
+            boolean wantsMore = false;
+            for (Connection connection : connections) {
+                wantsMore |= connection.deliver();
+            }
+            if (wantsMore && schedulerError == null && !sourceDone && subscriberCount.get() >= expectedSubscribers) {
+                if (chunksThisRun == MAX_CHUNKS_PER_RUN) {
+                    //Yield the shared thread; the new run inherits this loop's work-in-progress count
+                    schedule();
+                    return;
+                }
+                if (!readChunk()) {
+                    //No whole chunk has arrived yet; look again shortly instead of holding the shared thread
+                    schedule(TimeUnit.MILLISECONDS.toNanos(POLL_INTERVAL_MS));
+                    return;
+                }
+                chunksThisRun++;
+                continue;
+            }
+            missed = wip.addAndGet(-missed);
+            if (missed == 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Take one chunk from the source and queue it for every connected subscriber. Events are built on first use, so a
+     * chunk costs one event per channel that actually has subscribers.
+     * @return False if a whole chunk has not arrived yet
+     */
+    private boolean readChunk() {
+        NonBlockingAudioSource audio = pollableSource();
+        //Check for the end first, so the bytes available afterwards are all there will be
+        boolean ended = audio.isEnded();
+        int ready = audio.available();
+        if (ready < chunkSizeInBytes && !ended) {
+            return false;
+        }
+        int len = Math.min(ready, chunkSizeInBytes);
+        len -= len % frameSize;
+        if (len == 0) {
+            sourceDone = true;
+            sourceError = readAheadError;
+            return true;
+        }
+        ByteBuffer buffer = bufferPool.lease(chunkSizeInBytes);
+        try {
+            pollFully(audio, buffer, len);
+            AudioEvent audioEvent = null;
+            for (int c = 0; c < channelEvents.length; c++) {
+                channelEvents[c] = null;
+            }
+            for (Connection connection : connections) {
+                if (connection.channel < 0) {
+                    if (audioEvent == null) {
+                        audioEvent = AudioEvent.builder().audioChunk(SdkBytes.fromByteBuffer(buffer)).build();
+                    }
+                    connection.enqueue(audioEvent);
+                } else {
+                    if (channelEvents[connection.channel] == null) {
+                        channelEvents[connection.channel] = channelEvent(buffer, connection.channel);
+                    }
+                    connection.enqueue(channelEvents[connection.channel]);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            sourceDone = true;
+            sourceError = e;
+        } finally {
+            bufferPool.release(buffer);
+        }
+        return true;
+    }
+
+    /**
+     * Poll bytes that are known to be available into a buffer, through a scratch array if the buffer is direct
+     */
+    private void pollFully(NonBlockingAudioSource audio, ByteBuffer buffer, int len) throws IOException {
+        byte[] target;
+        int offset;
+        if (buffer.hasArray()) {
+            target = buffer.array();
+            offset = buffer.arrayOffset();
+        } else {
+            if (pollScratch == null) {
+                pollScratch = new byte[chunkSizeInBytes];
+            }
+            target = pollScratch;
+            offset = 0;
+        }
+        int filled = 0;
+        int n;
+        while (filled < len && (n = audio.poll(target, offset + filled, len - filled)) > 0) {
+            filled += n;
+        }
+        if (!buffer.hasArray()) {
+            buffer.put(target, 0, filled);
+        }
+        buffer.clear();
+        buffer.limit(filled);
+    }
+
+    /**
+     * @return The source itself if it can be polled, or otherwise a ring the source is read ahead into, started on
+     * first use so nothing is read before the expected subscribers have arrived
+     */
+    private NonBlockingAudioSource pollableSource() {
+        if (pollableSource == null) {
+            if (source instanceof NonBlockingAudioSource) {
+                pollableSource = (NonBlockingAudioSource) source;
+            } else {
+                AudioRingBuffer ring = new AudioRingBuffer(chunkSizeInBytes * READ_AHEAD_CHUNKS);
+                Thread reader = new Thread(() -> readAhead(ring), "audio-multicast-reader");
+                reader.setDaemon(true);
+                reader.start();
+                pollableSource = (NonBlockingAudioSource) ring.getInputStream();
+            }
+        }
+        return pollableSource;
+    }
+
+    /**
+     * Read-ahead loop: copy the source into the ring whole frames at a time, waiting for room rather than dropping
+     * audio, until the source ends or every subscriber has gone
+     */
+    private void readAhead(AudioRingBuffer ring) {
+        byte[] chunk = new byte[chunkSizeInBytes];
+        try {
+            int len;
+            while (!connections.isEmpty() && (len = readFrames(chunk, 0, chunk.length)) > 0) {
+                int written = 0;
+                while (written < len && !connections.isEmpty()) {
+                    if (ring.capacity() - ring.available() < len - written) {
+                        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(POLL_INTERVAL_MS));
+                        continue;
+                    }
+                    written += ring.write(chunk, written, len - written);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            readAheadError = e;
+        } finally {
+            ring.close();
+        }
+    }
+
+    /**
+     * Read into the array until it ends on a frame boundary, so channels never shift between chunks
+     * @return Number of bytes read, or -1 at the end of the source
+     */
+    private int readFrames(byte[] b, int off, int len) throws IOException {
+        int total = 0;
+        do {
+            int read = source.read(b, off + total, len - total);
+            if (read < 0) {
+                return total == 0 ? -1 : total - total % frameSize;
+            }
+            total += read;
+        } while (total == 0 || total % frameSize != 0);
+        return total;
+    }
+
+    /**
+     * Gather one channel's samples from an interleaved chunk into a mono event
+     */
+    private AudioEvent channelEvent(ByteBuffer chunk, int channel) {
+        int bytesPerSample = frameSize / channelEvents.length;
+        int frames = chunk.remaining() / frameSize;
+        ByteBuffer mono = bufferPool.lease(frames * bytesPerSample);
+        try {
+            //Absolute gets and puts work the same on heap and direct buffers
+            int inPos = chunk.position() + channel * bytesPerSample;
+            int outPos = 0;
+            for (int frame = 0; frame < frames; frame++) {
+                for (int i = 0; i < bytesPerSample; i++) {
+                    mono.put(outPos++, chunk.get(inPos + i));
+                }
+                inPos += frameSize;
+            }
+            mono.limit(frames * bytesPerSample);
+            return AudioEvent.builder().audioChunk(SdkBytes.fromByteBuffer(mono)).build();
+        } finally {
+            bufferPool.release(mono);
+        }
+    }
+
+    /**
+     * One subscriber's view of the shared stream, with its own demand and queue of undelivered chunks. Its queue and
+     * terminal state are only touched by the drain loop.
+     */
+    private class Connection implements Subscription {
+        private final Subscriber<? super AudioStream> subscriber;
+        private final int channel;
+        private final AtomicLong requested = new AtomicLong(0);
+        private final ArrayDeque<AudioEvent> queue = new ArrayDeque<>();
+        private volatile boolean cancelled = false;
+        private volatile Throwable pendingError;
+
+        /**
+         * @param channel Channel to deliver, or -1 for all channels
+         */
+        private Connection(Subscriber<? super AudioStream> subscriber, int channel) {
+            this.subscriber = subscriber;
+            this.channel = channel;
+        }
+
+        @Override
+        public void request(long n) {
+            if (cancelled) {
+                return;
+            }
+            if (n <= 0) {
+                pendingError = new IllegalArgumentException("Demand must be positive");
+            } else {
+                for (;;) {
+                    long current = requested.get();
+                    long updated = current + n < 0 ? Long.MAX_VALUE : current + n;
+                    if (requested.compareAndSet(current, updated)) {
+                        break;
+                    }
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            connections.remove(this);
+        }
+
+        /**
+         * Deliver queued chunks up to the outstanding demand, and the terminal signal once the source is done
+         * @return True if the subscriber wants more audio than is queued for it
+         */
+        private boolean deliver() {
+            if (cancelled) {
+                return false;
+            }
+            Throwable error = pendingError != null ? pendingError : schedulerError;
+            if (error != null) {
+                terminate(error);
+                return false;
+            }
+            long demand = requested.get();
+            long delivered = 0;
+            while (delivered != demand && !queue.isEmpty() && !cancelled) {
+                subscriber.onNext(queue.poll());
+                delivered++;
+            }
+            if (delivered != 0 && demand != Long.MAX_VALUE) {
+                demand = requested.addAndGet(-delivered);
+            }
+            if (queue.isEmpty() && sourceDone) {
+                if (sourceError != null) {
+                    terminate(sourceError);
+                } else {
+                    cancel();
+                    subscriber.onComplete();
+                }
+                return false;
+            }
+            return demand > queue.size();
+        }
+
+        private void enqueue(AudioEvent audioEvent) {
+            if (cancelled) {
+                return;
+            }
+            if (queue.size() >= maxLagChunks) {
+                if (slowSubscriberPolicy == SlowSubscriberPolicy.DISCONNECT) {
+                    queue.clear();
+                    disconnectedSubscribers.incrementAndGet();
+                    terminate(new IllegalStateException("Subscriber fell more than " + maxLagChunks
+                            + " chunks behind the shared audio stream"));
+                    return;
+                }
+                queue.poll();
+                droppedChunks.incrementAndGet();
+            }
+            queue.offer(audioEvent);
+        }
+
+        private void terminate(Throwable e) {
+            cancel();
+            subscriber.onError(e);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.amazonaws.transcribestreaming;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Noise gate for 16-bit signed little-endian mono PCM. While the level stays below the threshold, audio is attenuated
+ * by a fixed range, so line noise between words neither reaches the service nor keeps voice activity detection
+ * triggered.
+ *
+ * The level is measured over {@value #BLOCK_MS} ms blocks. The gate opens as soon as a block crosses the threshold,
+ * stays open for a hold time after the level drops, then closes over the release time. Gain changes are ramped within
+ * a block.
+ */
+public class NoiseGate extends Pcm16ChunkProcessor {
+
+    public static final double DEFAULT_THRESHOLD_DB = -50;
+    public static final double DEFAULT_RANGE_DB = -30;
+    public static final int DEFAULT_HOLD_MS = 150;
+    public static final int DEFAULT_RELEASE_MS = 50;
+    private static final int BLOCK_MS = 10;
+
+    private final int blockSamples;
+    private double thresholdLevel = Math.pow(10, DEFAULT_THRESHOLD_DB / 20) * Short.MAX_VALUE;
+    private float closedGain = (float) Math.pow(10, DEFAULT_RANGE_DB / 20);
+    private int holdBlocks = DEFAULT_HOLD_MS / BLOCK_MS;
+    private int releaseMillis = DEFAULT_RELEASE_MS;
+    private int blocksSinceOpen = Integer.MAX_VALUE;
+    private float gain;
+    private long blocks = 0;
+    private long gatedBlocks = 0;
+
+    /**
+     * @param format Format of the audio, 16-bit little-endian mono PCM
+     */
+    public NoiseGate(AudioFormat format) {
+        if (!PcmFormatConverter.isPcm16Mono(format)) {
+            throw new IllegalArgumentException("Noise gating requires 16-bit little-endian mono PCM: " + format);
+        }
+        this.blockSamples = Math.max(1, Math.round(format.getSampleRate() * BLOCK_MS / 1000));
+        this.gain = closedGain;
+    }
+
+    /**
+     * @param thresholdDb Level in dB relative to full scale above which the gate opens
+     * @param rangeDb Attenuation applied while the gate is closed, in dB, e.g. -30
+     */
+    public void setThreshold(double thresholdDb, double rangeDb) {
+        this.thresholdLevel = Math.pow(10, thresholdDb / 20) * Short.MAX_VALUE;
+        this.closedGain = (float) Math.pow(10, Math.min(0, rangeDb) / 20);
+    }
+
+    /**
+     * @param holdMillis How long the gate stays open after the level drops below the threshold
+     * @param releaseMillis How long the gate takes to close once the hold time is over
+     */
+    public void setHoldRelease(int holdMillis, int releaseMillis) {
+        if (holdMillis < 0 || releaseMillis <= 0) {
+            throw new IllegalArgumentException("Hold must not be negative and release must be positive");
+        }
+        this.holdBlocks = holdMillis / BLOCK_MS;
+        this.releaseMillis = Math.max(BLOCK_MS, releaseMillis);
+    }
+
+    /**
+     * @return Percentage of audio processed so far during which the gate was closed
+     */
+    public synchronized double getGatedPercent() {
+        return blocks == 0 ? 0 : 100.0 * gatedBlocks / blocks;
+    }
+
+    @Override
+    protected void process(byte[] pcm, int offset, int samples) {
+        int closed = 0;
+        int total = 0;
+        float releaseStep = (1 - closedGain) * BLOCK_MS / releaseMillis;
+        for (int start = 0; start < samples; start += blockSamples) {
+            int count = Math.min(blockSamples, samples - start);
+            int blockOffset = offset + 2 * start;
+            if (PcmKernels.rms(pcm, blockOffset, count) > thresholdLevel) {
+                blocksSinceOpen = 0;
+            } else if (blocksSinceOpen != Integer.MAX_VALUE) {
+                blocksSinceOpen++;
+            }
+
+            float nextGain;
+            if (blocksSinceOpen <= holdBlocks) {
+                nextGain = 1;
+            } else {
+                nextGain = Math.max(closedGain, gain - releaseStep);
+            }
+            if (nextGain == closedGain && gain == closedGain) {
+                closed++;
+            }
+            if (gain != 1 || nextGain != 1) {
+                PcmKernels.applyGain(pcm, blockOffset, count, gain, nextGain);
+            }
+            gain = nextGain;
+            total++;
+        }
+        synchronized (this) {
+            blocks += total;
+            gatedBlocks += closed;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.transcribestreaming;
+
+import java.io.IOException;
+
+/**
+ * An audio stream that can be read without blocking, such as live audio arriving through an AudioRingBuffer.
+ * ByteToAudioEventSubscription polls such streams and, while a chunk is not complete yet, schedules itself to look
+ * again later instead of holding a shared emission thread until audio arrives.
+ */
+public interface NonBlockingAudioSource {
+
+    /**
+     * @return Number of bytes that can be polled right now
+     */
+    int available();
+
+    /**
+     * @return True once no more audio will arrive beyond what is available
+     */
+    boolean isEnded();
+
+    /**
+     * Read available bytes without blocking
+     * @return Number of bytes read, 0 if none are available yet, or -1 at the end of the audio
+     */
+    int poll(byte[] b, int off, int len) throws IOException;
+}
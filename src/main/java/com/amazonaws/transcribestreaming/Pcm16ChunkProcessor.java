@@ -0,0 +1,55 @@
+/*
+ * Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.amazonaws.transcribestreaming;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Base class for chunk processors working on 16-bit signed little-endian mono PCM. Heap chunks are processed directly
+ * in their backing array; direct chunks go through a scratch array that is only reallocated when a larger chunk comes
+ * along, so steady-state processing does not allocate.
+ */
+public abstract class Pcm16ChunkProcessor implements AudioChunkProcessor {
+
+    private byte[] scratch = new byte[0];
+
+    @Override
+    public final void process(ByteBuffer chunk) {
+        int samples = chunk.remaining() / 2;
+        if (chunk.hasArray()) {
+            process(chunk.array(), chunk.arrayOffset() + chunk.position(), samples);
+            return;
+        }
+        if (scratch.length < samples * 2) {
+            scratch = new byte[samples * 2];
+        }
+        int position = chunk.position();
+        chunk.get(scratch, 0, samples * 2);
+        process(scratch, 0, samples);
+        chunk.position(position);
+        chunk.put(scratch, 0, samples * 2);
+        chunk.position(position);
+    }
+
+    /**
+     * Process samples in place
+     * @param pcm Array holding the samples
+     * @param offset Position of the first sample's low byte
+     * @param samples Number of samples
+     */
+    protected abstract void process(byte[] pcm, int offset, int samples);
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.transcribestreaming;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streaming converter from any PCM-like AudioFormat to the 16-bit signed little-endian mono PCM the service expects.
+ * Supported inputs are signed and unsigned integer PCM of 8, 16, 24 or 32 bits in either byte order, 32 and 64-bit
+ * float PCM, and 8-bit mu-law and A-law, with any number of channels. Channels are mixed down by averaging, or kept
+ * interleaved for channel identification and per-channel streaming.
+ *
+ * Samples are converted chunk by chunk from a scratch buffer allocated once, straight into the caller's buffer, so
+ * heterogeneous archives can be streamed without an offline conversion step.
+ */
+public final class PcmFormatConverter extends InputStream {
+
+    private static final int SCRATCH_FRAMES = 4096;
+    private static final short[] ULAW_TABLE = new short[256];
+    private static final short[] ALAW_TABLE = new short[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            ULAW_TABLE[i] = ulawToLinear((byte) i);
+            ALAW_TABLE[i] = alawToLinear((byte) i);
+        }
+    }
+
+    private enum SampleType { SIGNED, UNSIGNED, FLOAT, ULAW, ALAW }
+
+    private final InputStream in;
+    private final SampleType sampleType;
+    private final int bytesPerSample;
+    private final int channels;
+    private final int inputFrameSize;
+    private final int outputChannels;
+    private final boolean bigEndian;
+    private final byte[] scratch;
+    private int scratchLength = 0;
+
+    private PcmFormatConverter(InputStream in, AudioFormat format, boolean keepChannels) {
+        this.in = in;
+        this.sampleType = sampleType(format);
+        this.bytesPerSample = (format.getSampleSizeInBits() + 7) / 8;
+        this.channels = format.getChannels();
+        this.inputFrameSize = AudioFormats.frameSize(format);
+        this.outputChannels = keepChannels ? channels : 1;
+        this.bigEndian = format.isBigEndian();
+        this.scratch = new byte[SCRATCH_FRAMES * inputFrameSize];
+    }
+
+    /**
+     * Convert a stream to 16-bit signed little-endian mono PCM at its original sample rate
+     * @param source Audio in any supported format
+     * @return The converted stream, or the source itself if it is already in the target format
+     * @throws IllegalArgumentException if the source format is not supported
+     */
+    public static AudioInputStream convert(AudioInputStream source) {
+        return convert(source, false);
+    }
+
+    /**
+     * Convert a stream to 16-bit signed little-endian PCM at its original sample rate
+     * @param source Audio in any supported format
+     * @param keepChannels True to keep the source's channels interleaved, false to mix them down to mono
+     * @return The converted stream, or the source itself if it is already in the target format
+     * @throws IllegalArgumentException if the source format is not supported
+     */
+    public static AudioInputStream convert(AudioInputStream source, boolean keepChannels) {
+        AudioFormat format = source.getFormat();
+        int targetChannels = keepChannels ? format.getChannels() : 1;
+        if (isPcm16(format) && format.getChannels() == targetChannels) {
+            return source;
+        }
+        AudioFormat targetFormat = new AudioFormat(format.getSampleRate(), 16, targetChannels, true, false);
+        return new AudioInputStream(new PcmFormatConverter(source, format, keepChannels), targetFormat,
+                source.getFrameLength());
+    }
+
+    /**
+     * @return True if the format is already 16-bit signed little-endian mono PCM
+     */
+    static boolean isPcm16Mono(AudioFormat format) {
+        return isPcm16(format) && format.getChannels() == 1;
+    }
+
+    /**
+     * @return True if the format is 16-bit signed little-endian PCM with any number of channels
+     */
+    static boolean isPcm16(AudioFormat format) {
+        return AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding()) && format.getSampleSizeInBits() == 16
+                && !format.isBigEndian();
+    }
+
+    @Override
+    public int read() throws IOException {
+        throw new IOException("Cannot read a single byte of 16-bit audio");
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int wantedFrames = Math.min(len / (2 * outputChannels), SCRATCH_FRAMES);
+        if (wantedFrames == 0) {
+            return 0;
+        }
+        int frames = scratchLength / inputFrameSize;
+        while (frames == 0) {
+            int read = in.read(scratch, scratchLength, wantedFrames * inputFrameSize - scratchLength);
+            if (read < 0) {
+                return -1;
+            }
+            scratchLength += read;
+            frames = scratchLength / inputFrameSize;
+        }
+        frames = Math.min(frames, wantedFrames);
+
+        if (outputChannels == 1 && sampleType == SampleType.SIGNED && bytesPerSample == 2 && !bigEndian) {
+            PcmKernels.downmix(scratch, 0, channels, frames, b, off);
+            consume(frames);
+            return frames * 2;
+        }
+
+        int out = off;
+        for (int frame = 0; frame < frames; frame++) {
+            int inPos = frame * inputFrameSize;
+            if (outputChannels == 1) {
+                int sum = 0;
+                for (int c = 0; c < channels; c++) {
+                    sum += decode(inPos + c * bytesPerSample);
+                }
+                int sample = channels == 1 ? sum : sum / channels;
+                b[out++] = (byte) sample;
+                b[out++] = (byte) (sample >> 8);
+            } else {
+                for (int c = 0; c < channels; c++) {
+                    int sample = decode(inPos + c * bytesPerSample);
+                    b[out++] = (byte) sample;
+                    b[out++] = (byte) (sample >> 8);
+                }
+            }
+        }
+
+        consume(frames);
+        return out - off;
+    }
+
+    /**
+     * Drop converted frames from the front of the scratch buffer
+     */
+    private void consume(int frames) {
+        int consumed = frames * inputFrameSize;
+        scratchLength -= consumed;
+        System.arraycopy(scratch, consumed, scratch, 0, scratchLength);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Decode one sample from the scratch buffer to a 16-bit value
+     */
+    private int decode(int pos) {
+        switch (sampleType) {
+            case ULAW:
+                return ULAW_TABLE[scratch[pos] & 0xFF];
+            case ALAW:
+                return ALAW_TABLE[scratch[pos] & 0xFF];
+            case FLOAT:
+                double value = bytesPerSample == 8 ? Double.longBitsToDouble(readBits(pos, 8))
+                        : Float.intBitsToFloat((int) readBits(pos, 4));
+                value = value > 1 ? 1 : (value < -1 ? -1 : value);
+                return (int) Math.round(value * Short.MAX_VALUE);
+            case UNSIGNED:
+                return (int) (readBits(pos, bytesPerSample) << (64 - 8 * bytesPerSample) >>> 48) - 32768;
+            default:
+                //Sign-extend to 64 bits, then keep the 16 most significant bits
+                return (int) (readBits(pos, bytesPerSample) << (64 - 8 * bytesPerSample) >> 48);
+        }
+    }
+
+    private long readBits(int pos, int bytes) {
+        long bits = 0;
+        if (bigEndian) {
+            for (int i = 0; i < bytes; i++) {
+                bits = (bits << 8) | (scratch[pos + i] & 0xFF);
+            }
+        } else {
+            for (int i = bytes - 1; i >= 0; i--) {
+                bits = (bits << 8) | (scratch[pos + i] & 0xFF);
+            }
+        }
+        return bits;
+    }
+
+    private static SampleType sampleType(AudioFormat format) {
+        AudioFormat.Encoding encoding = format.getEncoding();
+        int bits = format.getSampleSizeInBits();
+        if (AudioFormat.Encoding.PCM_SIGNED.equals(encoding) && (bits == 8 || bits == 16 || bits == 24 || bits == 32)) {
+            return SampleType.SIGNED;
+        }
+        if (AudioFormat.Encoding.PCM_UNSIGNED.equals(encoding) && (bits == 8 || bits == 16 || bits == 24 || bits == 32)) {
+            return SampleType.UNSIGNED;
+        }
+        if (AudioFormat.Encoding.PCM_FLOAT.equals(encoding) && (bits == 32 || bits == 64)) {
+            return SampleType.FLOAT;
+        }
+        if (AudioFormat.Encoding.ULAW.equals(encoding) && bits == 8) {
+            return SampleType.ULAW;
+        }
+        if (AudioFormat.Encoding.ALAW.equals(encoding) && bits == 8) {
+            return SampleType.ALAW;
+        }
+        throw new IllegalArgumentException("Unsupported audio format: " + format);
+    }
+
+    private static short ulawToLinear(byte ulaw) {
+        int u = ~ulaw & 0xFF;
+        int t = ((u & 0x0F) << 3) + 0x84;
+        t <<= (u & 0x70) >> 4;
+        return (short) ((u & 0x80) != 0 ? 0x84 - t : t - 0x84);
+    }
+
+    private static short alawToLinear(byte alaw) {
+        int a = (alaw ^ 0x55) & 0xFF;
+        int t = (a & 0x0F) << 4;
+        int segment = (a & 0x70) >> 4;
+        if (segment == 0) {
+            t += 8;
+        } else {
+            t = (t + 0x108) << (segment - 1);
+        }
+        return (short) ((a & 0x80) != 0 ? t : -t);
+    }
+}
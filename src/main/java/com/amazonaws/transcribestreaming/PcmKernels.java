@@ -0,0 +1,220 @@
+/*
+ * Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.transcribestreaming;
+
+/**
+ * Per-sample loops shared by the audio stages, which run on every chunk of every stream. Each kernel takes explicit
+ * offsets so stages can run it straight on chunk and scratch buffers, and allocates nothing.
+ *
+ * The kernels here are scalar and run on Java 8. On Java 17 and later, with the jdk.incubator.vector module added,
+ * the busiest ones hand over to the Vector API versions in PcmVectorKernels, which the multi-release jar provides.
+ * Assembling little-endian samples from byte pairs keeps HotSpot from vectorizing the scalar loops by itself.
+ *
+ * Samples are 16-bit signed little-endian PCM unless stated otherwise.
+ */
+final class PcmKernels {
+
+    private PcmKernels() {
+    }
+
+    /**
+     * Dot product of two float ranges, e.g. filter taps and sample history
+     */
+    static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        if (PcmVectorKernels.AVAILABLE) {
+            return PcmVectorKernels.dot(a, aOffset, b, bOffset, length);
+        }
+        //Independent accumulators break the dependency chain between additions
+        float acc0 = 0;
+        float acc1 = 0;
+        float acc2 = 0;
+        float acc3 = 0;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            acc0 += a[aOffset + i] * b[bOffset + i];
+            acc1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+            acc2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+            acc3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+        }
+        for (; i < length; i++) {
+            acc0 += a[aOffset + i] * b[bOffset + i];
+        }
+        return (acc0 + acc1) + (acc2 + acc3);
+    }
+
+    /**
+     * @return Sum of the squared sample values, exact for any realistic chunk length
+     */
+    static long sumOfSquares(byte[] pcm, int offset, int samples) {
+        if (PcmVectorKernels.AVAILABLE) {
+            return PcmVectorKernels.sumOfSquares(pcm, offset, samples);
+        }
+        long sum = 0;
+        for (int i = 0; i < samples; i++) {
+            int sample = sample(pcm, offset + 2 * i);
+            sum += sample * sample;
+        }
+        return sum;
+    }
+
+    /**
+     * @return Root mean square of the samples, in sample units
+     */
+    static double rms(byte[] pcm, int offset, int samples) {
+        return samples == 0 ? 0 : Math.sqrt((double) sumOfSquares(pcm, offset, samples) / samples);
+    }
+
+    /**
+     * @return Number of sign changes between consecutive samples
+     */
+    static int zeroCrossings(byte[] pcm, int offset, int samples) {
+        int crossings = 0;
+        int previous = 0;
+        for (int i = 0; i < samples; i++) {
+            int sample = sample(pcm, offset + 2 * i);
+            crossings += (sample ^ previous) >>> 31;
+            previous = sample;
+        }
+        return crossings;
+    }
+
+    /**
+     * @return Largest absolute sample value
+     */
+    static int peak(byte[] pcm, int offset, int samples) {
+        if (PcmVectorKernels.AVAILABLE) {
+            return PcmVectorKernels.peak(pcm, offset, samples);
+        }
+        int peak = 0;
+        for (int i = 0; i < samples; i++) {
+            peak = Math.max(peak, Math.abs(sample(pcm, offset + 2 * i)));
+        }
+        return peak;
+    }
+
+    /**
+     * Multiply samples in place by a gain ramping linearly from one value to another, saturating at the 16-bit range
+     */
+    static void applyGain(byte[] pcm, int offset, int samples, float startGain, float endGain) {
+        float step = samples == 0 ? 0 : (endGain - startGain) / samples;
+        for (int i = 0; i < samples; i++) {
+            int pos = offset + 2 * i;
+            int value = Math.round(sample(pcm, pos) * (startGain + step * (i + 1)));
+            value = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+            pcm[pos] = (byte) value;
+            pcm[pos + 1] = (byte) (value >> 8);
+        }
+    }
+
+    /**
+     * Run a biquad filter over samples in place, saturating at the 16-bit range
+     * @param coefficients b0, b1, b2, a1 and a2, normalized so a0 is 1
+     * @param state Two elements of direct form II transposed state, carried from one call to the next
+     */
+    static void biquad(byte[] pcm, int offset, int samples, double[] coefficients, double[] state) {
+        double b0 = coefficients[0];
+        double b1 = coefficients[1];
+        double b2 = coefficients[2];
+        double a1 = coefficients[3];
+        double a2 = coefficients[4];
+        double z1 = state[0];
+        double z2 = state[1];
+        for (int i = 0; i < samples; i++) {
+            int pos = offset + 2 * i;
+            double x = sample(pcm, pos);
+            double y = b0 * x + z1;
+            z1 = b1 * x - a1 * y + z2;
+            z2 = b2 * x - a2 * y;
+            int value = (int) Math.round(y);
+            value = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+            pcm[pos] = (byte) value;
+            pcm[pos + 1] = (byte) (value >> 8);
+        }
+        state[0] = z1;
+        state[1] = z2;
+    }
+
+    /**
+     * Average interleaved channels down to mono
+     * @param in Interleaved frames
+     * @param inOffset Offset of the first frame
+     * @param channels Number of interleaved channels
+     * @param frames Number of frames
+     * @param out Mono output, which may be the input array if the output does not overtake the input
+     * @param outOffset Offset of the first output sample
+     */
+    static void downmix(byte[] in, int inOffset, int channels, int frames, byte[] out, int outOffset) {
+        for (int frame = 0; frame < frames; frame++) {
+            int pos = inOffset + frame * channels * 2;
+            int sum = 0;
+            for (int c = 0; c < channels; c++) {
+                sum += sample(in, pos + 2 * c);
+            }
+            int value = sum / channels;
+            out[outOffset + 2 * frame] = (byte) value;
+            out[outOffset + 2 * frame + 1] = (byte) (value >> 8);
+        }
+    }
+
+    /**
+     * Add samples to running sums, e.g. to mix several sources
+     */
+    static void accumulate(byte[] pcm, int offset, int samples, int[] sums) {
+        if (PcmVectorKernels.AVAILABLE) {
+            PcmVectorKernels.accumulate(pcm, offset, samples, sums);
+            return;
+        }
+        for (int i = 0; i < samples; i++) {
+            sums[i] += sample(pcm, offset + 2 * i);
+        }
+    }
+
+    /**
+     * Write sums as samples, saturating at the 16-bit range
+     */
+    static void saturate(int[] sums, int samples, byte[] pcm, int offset) {
+        if (PcmVectorKernels.AVAILABLE) {
+            PcmVectorKernels.saturate(sums, samples, pcm, offset);
+            return;
+        }
+        for (int i = 0; i < samples; i++) {
+            int value = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sums[i]));
+            pcm[offset + 2 * i] = (byte) value;
+            pcm[offset + 2 * i + 1] = (byte) (value >> 8);
+        }
+    }
+
+    /**
+     * Copy mono samples into one channel of interleaved frames
+     */
+    static void interleave(byte[] mono, int offset, int samples, byte[] out, int outOffset, int channel,
+                           int channels) {
+        for (int i = 0; i < samples; i++) {
+            int pos = outOffset + 2 * (i * channels + channel);
+            out[pos] = mono[offset + 2 * i];
+            out[pos + 1] = mono[offset + 2 * i + 1];
+        }
+    }
+
+    /**
+     * @return The sample starting at the given byte position
+     */
+    static int sample(byte[] pcm, int pos) {
+        return (short) ((pcm[pos] & 0xFF) | (pcm[pos + 1] << 8));
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.transcribestreaming;
+
+/**
+ * Vector API versions of the busiest PcmKernels. This is the Java 8 stand-in, which is never available. The
+ * multi-release jar replaces it on Java 17 and later with the implementation in src/main/java17, which is used when
+ * the jdk.incubator.vector module is added to the runtime.
+ */
+final class PcmVectorKernels {
+
+    /**
+     * True if the kernels below can be called. Not a compile-time constant, so callers read the value of whichever
+     * version of this class the runtime loaded.
+     */
+    static final boolean AVAILABLE = probe();
+
+    private PcmVectorKernels() {
+    }
+
+    private static boolean probe() {
+        return false;
+    }
+
+    static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        throw new UnsupportedOperationException();
+    }
+
+    static long sumOfSquares(byte[] pcm, int offset, int samples) {
+        throw new UnsupportedOperationException();
+    }
+
+    static int peak(byte[] pcm, int offset, int samples) {
+        throw new UnsupportedOperationException();
+    }
+
+    static void accumulate(byte[] pcm, int offset, int samples, int[] sums) {
+        throw new UnsupportedOperationException();
+    }
+
+    static void saturate(int[] sums, int samples, byte[] pcm, int offset) {
+        throw new UnsupportedOperationException();
+    }
+}
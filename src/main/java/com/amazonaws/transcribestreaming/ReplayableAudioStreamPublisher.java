@@ -0,0 +1,319 @@
+/*
+ * Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.transcribestreaming;
+
+import org.reactivestreams.Subscriber;
+import software.amazon.awssdk.services.transcribestreaming.model.AudioStream;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An AudioStreamPublisher that can be subscribed to again after a failed session without losing audio.
+ *
+ * Audio read from the source is kept in a bounded ring until the service confirms it has finished transcribing it,
+ * which TranscribeStreamingRetryClient reports through {@link #confirm(double)} as final results arrive. Each new
+ * subscription starts at the last confirmed offset, so a reconnect re-sends only the audio whose transcript was not
+ * final yet, not everything since the start of the stream.
+ *
+ * If the unconfirmed audio outgrows the ring, the oldest bytes are dropped and counted; a resumed session then starts
+ * at the oldest audio still retained.
+ *
+ * When the source is a NonBlockingAudioSource, such as live microphone audio, subscriptions poll it too, so they never
+ * block a shared emission thread waiting for audio.
+ */
+public class ReplayableAudioStreamPublisher extends AudioStreamPublisher {
+
+    public static final int DEFAULT_RETENTION_MS = 60_000;
+
+    private final InputStream source;
+    private final int frameSize;
+    private final double bytesPerSecond;
+    private final byte[] ring;
+    private final Object sourceLock = new Object();
+    private long retainedStart = 0;
+    private long sourceEnd = 0;
+    private boolean sourceFinished = false;
+    private long confirmedOffset = 0;
+    private long droppedBytes = 0;
+    private volatile long sessionStartOffset = 0;
+
+    /**
+     * Create a publisher retaining up to {@value #DEFAULT_RETENTION_MS} ms of unconfirmed audio
+     * @param source Audio to publish
+     * @param format Format of the audio, used to convert result times to byte offsets
+     */
+    public ReplayableAudioStreamPublisher(InputStream source, AudioFormat format) {
+        this(source, format, DEFAULT_RETENTION_MS);
+    }
+
+    /**
+     * @param source Audio to publish
+     * @param format Format of the audio, used to convert result times to byte offsets
+     * @param retentionMillis Maximum amount of unconfirmed audio kept for replay
+     */
+    public ReplayableAudioStreamPublisher(InputStream source, AudioFormat format, int retentionMillis) {
+        super(source);
+        this.source = source;
+        this.frameSize = AudioFormats.frameSize(format);
+        this.bytesPerSecond = AudioFormats.bytesPerSecond(format);
+        this.ring = new byte[AudioFormats.bytesForDuration(format, retentionMillis)];
+        setAudioFormat(format);
+    }
+
+    /**
+     * Confirm that the service has produced final results for the current session's audio up to the given time, so
+     * that audio no longer needs to be kept for replay.
+     * @param sessionSeconds End time of a final result, relative to the start of the current session
+     */
+    public synchronized void confirm(double sessionSeconds) {
+        confirmOffset(sessionStartOffset + toBytes(sessionSeconds));
+    }
+
+    /**
+     * Confirm final results up to a time on the timeline of the whole stream rather than the current session, for
+     * callers that keep track of several sessions at once
+     * @param streamSeconds End time of a final result, relative to the start of the audio
+     */
+    public synchronized void confirmStreamTime(double streamSeconds) {
+        confirmOffset(toBytes(streamSeconds));
+    }
+
+    private void confirmOffset(long offset) {
+        if (offset > confirmedOffset) {
+            confirmedOffset = Math.min(offset, sourceEnd);
+            retainedStart = Math.max(retainedStart, confirmedOffset);
+        }
+    }
+
+    /**
+     * @return Offset, in seconds from the start of the audio, where the current session started
+     */
+    @Override
+    public double getSessionStartSeconds() {
+        return sessionStartOffset / bytesPerSecond;
+    }
+
+    /**
+     * @return Seconds of audio confirmed by final results so far
+     */
+    public synchronized double getConfirmedSeconds() {
+        return confirmedOffset / bytesPerSecond;
+    }
+
+    /**
+     * @return Number of unconfirmed bytes dropped because they did not fit into the replay ring
+     */
+    public synchronized long getDroppedBytes() {
+        return droppedBytes;
+    }
+
+    @Override
+    protected ByteToAudioEventSubscription newSubscription(Subscriber<? super AudioStream> s) {
+        long start;
+        synchronized (this) {
+            start = Math.max(confirmedOffset, retainedStart);
+            sessionStartOffset = start;
+        }
+        Cursor cursor = source instanceof NonBlockingAudioSource ? new PollingCursor(start) : new Cursor(start);
+        return new ByteToAudioEventSubscription(s, cursor, getExecutor());
+    }
+
+    private long toBytes(double seconds) {
+        long bytes = (long) (seconds * bytesPerSecond);
+        return bytes - bytes % frameSize;
+    }
+
+    /**
+     * Read bytes at an absolute offset, pulling more audio from the source when the offset is past what was read so
+     * far. Blocks while the source blocks, without holding the lock confirm() needs.
+     * @return Number of bytes read, or -1 at the end of the audio
+     */
+    private int readAt(long position, byte[] b, int off, int len) throws IOException {
+        synchronized (sourceLock) {
+            synchronized (this) {
+                if (position < sourceEnd) {
+                    return copyFromRing(position, b, off, len);
+                }
+                if (sourceFinished) {
+                    return -1;
+                }
+            }
+            //Cursors only copy out of the ring while holding sourceLock, so the oldest bytes can be overwritten here
+            int index = (int) (sourceEnd % ring.length);
+            int read = source.read(ring, index, Math.min(len, ring.length - index));
+            synchronized (this) {
+                if (read < 0) {
+                    sourceFinished = true;
+                    return -1;
+                }
+                sourceEnd += read;
+                //Drop the oldest retained bytes if the ring was full of unconfirmed audio
+                long overflow = sourceEnd - retainedStart - ring.length;
+                if (overflow > 0) {
+                    droppedBytes += overflow;
+                    retainedStart += overflow;
+                }
+                return copyFromRing(position, b, off, len);
+            }
+        }
+    }
+
+    /**
+     * Read bytes at an absolute offset like {@link #readAt(long, byte[], int, int)}, but only take what a non-blocking
+     * source already has
+     * @return Number of bytes read, 0 if the source has nothing yet, or -1 at the end of the audio
+     */
+    private int pollAt(long position, byte[] b, int off, int len) throws IOException {
+        synchronized (sourceLock) {
+            synchronized (this) {
+                if (position < sourceEnd) {
+                    return copyFromRing(position, b, off, len);
+                }
+                if (sourceFinished) {
+                    return -1;
+                }
+            }
+            int index = (int) (sourceEnd % ring.length);
+            int read = ((NonBlockingAudioSource) source).poll(ring, index, Math.min(len, ring.length - index));
+            synchronized (this) {
+                if (read < 0) {
+                    sourceFinished = true;
+                    return -1;
+                }
+                if (read == 0) {
+                    return 0;
+                }
+                sourceEnd += read;
+                long overflow = sourceEnd - retainedStart - ring.length;
+                if (overflow > 0) {
+                    droppedBytes += overflow;
+                    retainedStart += overflow;
+                }
+                return copyFromRing(position, b, off, len);
+            }
+        }
+    }
+
+    private int copyFromRing(long position, byte[] b, int off, int len) {
+        int count = (int) Math.min(len, sourceEnd - position);
+        int index = (int) (position % ring.length);
+        int first = Math.min(count, ring.length - index);
+        System.arraycopy(ring, index, b, off, first);
+        System.arraycopy(ring, 0, b, off + first, count - first);
+        return count;
+    }
+
+    /**
+     * Independent read position into the retained audio, one per subscription
+     */
+    private class Cursor extends InputStream {
+        long position;
+
+        private Cursor(long position) {
+            this.position = position;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            //The audio at this position may have been dropped or confirmed meanwhile, so skip ahead to what is retained
+            skipToRetained();
+            int read = readAt(position, b, off, len);
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+
+        /**
+         * Move past audio that was dropped or confirmed meanwhile
+         * @return The position to read from
+         */
+        long skipToRetained() {
+            synchronized (ReplayableAudioStreamPublisher.this) {
+                if (position < retainedStart) {
+                    position = retainedStart;
+                }
+                return position;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+    }
+
+    /**
+     * Cursor over a non-blocking source, which publishers poll instead of read
+     */
+    private final class PollingCursor extends Cursor implements NonBlockingAudioSource {
+
+        private PollingCursor(long position) {
+            super(position);
+        }
+
+        @Override
+        public int available() {
+            long from = skipToRetained();
+            long retained;
+            synchronized (ReplayableAudioStreamPublisher.this) {
+                retained = Math.max(0, sourceEnd - from);
+            }
+            return (int) Math.min(Integer.MAX_VALUE, retained + ((NonBlockingAudioSource) source).available());
+        }
+
+        @Override
+        public boolean isEnded() {
+            long from = skipToRetained();
+            synchronized (ReplayableAudioStreamPublisher.this) {
+                if (from < sourceEnd) {
+                    return false;
+                }
+                if (sourceFinished) {
+                    return true;
+                }
+            }
+            NonBlockingAudioSource nonBlockingSource = (NonBlockingAudioSource) source;
+            return nonBlockingSource.isEnded() && nonBlockingSource.available() == 0;
+        }
+
+        @Override
+        public int poll(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            long from = skipToRetained();
+            int read = pollAt(from, b, off, len);
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+    }
+}
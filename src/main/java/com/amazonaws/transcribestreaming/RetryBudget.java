@@ -0,0 +1,139 @@
+/*
+ * Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.transcribestreaming;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting how many retries all streams in the process may make together, so that after an outage
+ * retries add a bounded fraction of load instead of multiplying it.
+ *
+ * Every new stream deposits a fraction of a token and every retry withdraws a whole one, so in steady state retries
+ * are at most that fraction of streams. A small number of tokens is also refilled every second, so a process with few
+ * streams can still ride out a disconnect. The bucket never holds more than its capacity, which bounds the burst of
+ * retries right after an outage.
+ */
+public final class RetryBudget {
+
+    public static final double DEFAULT_RETRY_RATIO = 0.1;
+    public static final double DEFAULT_MIN_RETRIES_PER_SECOND = 5;
+    public static final double DEFAULT_CAPACITY = 50;
+
+    private static RetryBudget defaultBudget;
+
+    private final double retryRatio;
+    private final double minRetriesPerSecond;
+    private final double capacity;
+    private double tokens;
+    private long lastRefillNanos;
+    private long retriesAllowed = 0;
+    private long retriesDenied = 0;
+
+    /**
+     * @param retryRatio Tokens deposited by every new stream, i.e. the fraction of streams that may be retried
+     * @param minRetriesPerSecond Tokens refilled every second regardless of traffic
+     * @param capacity Maximum number of tokens, i.e. the largest burst of retries
+     */
+    public RetryBudget(double retryRatio, double minRetriesPerSecond, double capacity) {
+        if (!(retryRatio >= 0) || !(minRetriesPerSecond >= 0)) {
+            throw new IllegalArgumentException("Retry ratio and refill rate must not be negative");
+        }
+        if (!(capacity >= 1)) {
+            throw new IllegalArgumentException("Capacity must allow at least one retry");
+        }
+        this.retryRatio = retryRatio;
+        this.minRetriesPerSecond = minRetriesPerSecond;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Get the budget shared by all retry clients that were not given one, creating it on first use
+     * @return Process-wide retry budget
+     */
+    public static synchronized RetryBudget getDefault() {
+        if (defaultBudget == null) {
+            defaultBudget = new RetryBudget(DEFAULT_RETRY_RATIO, DEFAULT_MIN_RETRIES_PER_SECOND, DEFAULT_CAPACITY);
+        }
+        return defaultBudget;
+    }
+
+    /**
+     * Replace the shared budget. Only retry clients created afterwards use it.
+     * @param budget Budget to be shared by retry clients created without an explicit budget
+     */
+    public static synchronized void setDefault(RetryBudget budget) {
+        if (budget == null) {
+            throw new IllegalArgumentException("Budget must not be null");
+        }
+        defaultBudget = budget;
+    }
+
+    /**
+     * Record a new stream, which earns its share of retries
+     */
+    public synchronized void recordRequest() {
+        refill();
+        tokens = Math.min(capacity, tokens + retryRatio);
+    }
+
+    /**
+     * Take a token for a retry if one is available
+     * @return True if the retry may go ahead, false if the budget is spent
+     */
+    public synchronized boolean tryAcquireRetry() {
+        refill();
+        if (tokens >= 1) {
+            tokens -= 1;
+            retriesAllowed++;
+            return true;
+        }
+        retriesDenied++;
+        return false;
+    }
+
+    /**
+     * @return Number of retries currently available
+     */
+    public synchronized double getAvailableRetries() {
+        refill();
+        return tokens;
+    }
+
+    /**
+     * @return Number of retries allowed since the budget was created
+     */
+    public synchronized long getRetriesAllowed() {
+        return retriesAllowed;
+    }
+
+    /**
+     * @return Number of retries denied because the budget was spent
+     */
+    public synchronized long getRetriesDenied() {
+        return retriesDenied;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        double seconds = (now - lastRefillNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+        lastRefillNanos = now;
+        tokens = Math.min(capacity, tokens + seconds * minRetriesPerSecond);
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.transcribestreaming;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Streaming polyphase sample rate converter for 16-bit signed little-endian PCM, to be inserted between an audio
+ * source and the publisher. Converting 44.1 kHz or 48 kHz input down to 16 kHz cuts the bytes and AudioEvents sent to
+ * the service to a third.
+ *
+ * The converter resamples by the rational factor L/M between the two rates, using a windowed-sinc low-pass filter
+ * split into L phases. The filter spans {@value #FILTER_SPAN} samples at the lower of the two rates, whatever the
+ * ratio, and its stopband starts at the lower Nyquist frequency, so nothing above it aliases into the output. Measured
+ * with a sine sweep, 48 kHz and 44.1 kHz input converted to 16 kHz is attenuated by at least 70 dB from 8 kHz up. All
+ * buffers and the filter bank are allocated up front, so reading from the converter allocates nothing.
+ *
+ * The filter delays the audio by half its length. At the end of the source, that much silence is fed through it, so
+ * the last of the audio is not lost in the filter's history.
+ */
+public final class SampleRateConverter extends InputStream {
+
+    private static final int FILTER_SPAN = 64;
+    private static final int INPUT_BLOCK_FRAMES = 1024;
+    //Transition band of a Blackman-windowed sinc in cycles per sample, times the filter length
+    private static final double BLACKMAN_TRANSITION = 5.5;
+
+    private final InputStream in;
+    private final int channels;
+    private final int upFactor;   //L
+    private final int downFactor; //M
+    private final int tapsPerPhase;
+    private final int flushFrames;
+    private final float[][] phases;
+    private final float[][] history;
+    private final byte[] inputBlock;
+    private final byte[] output;
+    private int inputLeftover = 0;
+    private int historyPosition = 0;
+    private long inputFrames = 0;
+    private long nextOutputPosition = 0; //position of the next output sample at the upsampled rate
+    private int outputStart = 0;
+    private int outputEnd = 0;
+    private int remainingFlushFrames;
+    private boolean sourceEnded = false;
+    private boolean eof = false;
+
+    private SampleRateConverter(InputStream in, int channels, int sourceRate, int targetRate) {
+        this.in = in;
+        this.channels = channels;
+        int gcd = gcd(sourceRate, targetRate);
+        this.upFactor = targetRate / gcd;
+        this.downFactor = sourceRate / gcd;
+        this.tapsPerPhase = (FILTER_SPAN * Math.max(upFactor, downFactor) + upFactor - 1) / upFactor;
+        this.phases = designFilterBank(upFactor, downFactor, tapsPerPhase);
+        //Input frames it takes for the filter's center tap to pass the last input frame
+        this.flushFrames = (tapsPerPhase + 1) / 2;
+        this.remainingFlushFrames = flushFrames;
+        this.history = new float[channels][2 * tapsPerPhase];
+        this.inputBlock = new byte[INPUT_BLOCK_FRAMES * channels * 2];
+        int maxOutputFrames = (int) ((long) INPUT_BLOCK_FRAMES * upFactor / downFactor) + 2;
+        this.output = new byte[maxOutputFrames * channels * 2];
+    }
+
+    /**
+     * Resample a 16-bit signed little-endian PCM stream
+     * @param source Audio to convert
+     * @param targetRate Sample rate of the returned stream in Hertz
+     * @return Stream of the audio at the target rate, or the source itself if it already has that rate
+     */
+    public static AudioInputStream convert(AudioInputStream source, int targetRate) {
+        AudioFormat format = source.getFormat();
+        int sourceRate = Math.round(format.getSampleRate());
+        if (sourceRate == targetRate) {
+            return source;
+        }
+        if (!PcmFormatConverter.isPcm16(format)) {
+            throw new IllegalArgumentException("Sample rate conversion requires 16-bit signed little-endian PCM: "
+                    + format);
+        }
+        AudioFormat targetFormat = new AudioFormat(targetRate, 16, format.getChannels(), true, false);
+        SampleRateConverter converter = new SampleRateConverter(source, format.getChannels(), sourceRate, targetRate);
+        //One output frame for every position before the end of the input and the silence that flushes the filter
+        long frames = source.getFrameLength() == AudioSystem.NOT_SPECIFIED ? AudioSystem.NOT_SPECIFIED
+                : ((source.getFrameLength() + converter.flushFrames) * targetRate + sourceRate - 1) / sourceRate;
+        return new AudioInputStream(converter, targetFormat, frames);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        while (outputStart == outputEnd) {
+            if (eof) {
+                return -1;
+            }
+            convertBlock();
+        }
+        int count = Math.min(len, outputEnd - outputStart);
+        System.arraycopy(output, outputStart, b, off, count);
+        outputStart += count;
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return outputEnd - outputStart;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Read one block of input and resample it into the output buffer
+     */
+    private void convertBlock() throws IOException {
+        int frameSize = channels * 2;
+        int read = sourceEnded ? -1 : in.read(inputBlock, inputLeftover, inputBlock.length - inputLeftover);
+        if (read < 0) {
+            sourceEnded = true;
+            if (remainingFlushFrames == 0) {
+                eof = true;
+                return;
+            }
+            //Feed silence in place of the rest of the input, dropping any partial frame the source ended with
+            int silentFrames = Math.min(remainingFlushFrames, INPUT_BLOCK_FRAMES);
+            remainingFlushFrames -= silentFrames;
+            inputLeftover = 0;
+            read = silentFrames * frameSize;
+            Arrays.fill(inputBlock, 0, read, (byte) 0);
+        }
+        int available = inputLeftover + read;
+        int frames = available / frameSize;
+
+        int out = 0;
+        for (int frame = 0; frame < frames; frame++) {
+            int inPos = frame * frameSize;
+            for (int c = 0; c < channels; c++) {
+                float sample = (short) ((inputBlock[inPos + 2 * c] & 0xFF) | (inputBlock[inPos + 2 * c + 1] << 8));
+                float[] h = history[c];
+                h[historyPosition] = sample;
+                h[historyPosition + tapsPerPhase] = sample;
+            }
+            //Emit every output sample whose position falls on this input sample
+            while (nextOutputPosition / upFactor == inputFrames) {
+                float[] phase = phases[(int) (nextOutputPosition - inputFrames * upFactor)];
+                for (int c = 0; c < channels; c++) {
+                    float[] h = history[c];
+                    //Phases are stored oldest tap first, matching the history from its oldest sample onwards
+                    float acc = PcmKernels.dot(phase, 0, h, historyPosition + 1, tapsPerPhase);
+                    int value = Math.round(acc);
+                    value = value > Short.MAX_VALUE ? Short.MAX_VALUE : (value < Short.MIN_VALUE ? Short.MIN_VALUE : value);
+                    output[out++] = (byte) value;
+                    output[out++] = (byte) (value >> 8);
+                }
+                nextOutputPosition += downFactor;
+            }
+            inputFrames++;
+            historyPosition = historyPosition + 1 == tapsPerPhase ? 0 : historyPosition + 1;
+        }
+
+        inputLeftover = available - frames * frameSize;
+        System.arraycopy(inputBlock, frames * frameSize, inputBlock, 0, inputLeftover);
+        outputStart = 0;
+        outputEnd = out;
+    }
+
+    /**
+     * Design a windowed-sinc low-pass filter at the upsampled rate and split it into L phases. The cutoff sits half a
+     * transition band below the lower of the two Nyquist frequencies, so the stopband starts at that frequency and
+     * downsampling does not alias.
+     */
+    private static float[][] designFilterBank(int upFactor, int downFactor, int tapsPerPhase) {
+        int length = upFactor * tapsPerPhase;
+        //Cycles per upsampled sample
+        double cutoff = 0.5 / Math.max(upFactor, downFactor) - BLACKMAN_TRANSITION / length / 2;
+        double center = (length - 1) / 2.0;
+        float[][] phases = new float[upFactor][tapsPerPhase];
+        for (int n = 0; n < length; n++) {
+            double x = n - center;
+            double sinc = x == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * x) / (Math.PI * x);
+            double window = 0.42 - 0.5 * Math.cos(2 * Math.PI * n / (length - 1))
+                    + 0.08 * Math.cos(4 * Math.PI * n / (length - 1)); //Blackman
+            phases[n % upFactor][tapsPerPhase - 1 - n / upFactor] = (float) (upFactor * sinc * window);
+        }
+        return phases;
+    }
+
+    private static int gcd(int a, int b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+}
@@ -28,7 +28,8 @@ public interface StreamTranscriptionBehavior {
     void onError(Throwable e);
 
     /**
-     * Defines how to respond to the Transcript result stream.
+     * Defines how to respond to the Transcript result stream. When streaming through TranscribeStreamingRetryClient,
+     * result times are relative to the start of the whole stream, even after reconnects.
      * @param e The TranscriptResultStream event
      */
     void onStream(TranscriptResultStream e);
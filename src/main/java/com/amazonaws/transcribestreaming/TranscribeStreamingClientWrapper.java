@@ -17,8 +17,6 @@
 
 package com.amazonaws.transcribestreaming;
 
-import org.reactivestreams.Publisher;
-import org.reactivestreams.Subscriber;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
 import software.amazon.awssdk.auth.signer.EventStreamAws4Signer;
@@ -27,7 +25,6 @@ import software.amazon.awssdk.core.exception.SdkClientException;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.regions.providers.DefaultAwsRegionProviderChain;
 import software.amazon.awssdk.services.transcribestreaming.TranscribeStreamingAsyncClient;
-import software.amazon.awssdk.services.transcribestreaming.model.AudioStream;
 import software.amazon.awssdk.services.transcribestreaming.model.LanguageCode;
 import software.amazon.awssdk.services.transcribestreaming.model.MediaEncoding;
 import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionRequest;
@@ -40,12 +37,13 @@ import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.TargetDataLine;
 import javax.sound.sampled.UnsupportedAudioFileException;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -55,8 +53,23 @@ import java.util.concurrent.CompletableFuture;
  */
 public class TranscribeStreamingClientWrapper {
 
+    private static final String CHANNEL_IDENTIFICATION_HEADER = "x-amzn-transcribe-enable-channel-identification";
+    private static final String NUMBER_OF_CHANNELS_HEADER = "x-amzn-transcribe-number-of-channels";
+
     private TranscribeStreamingRetryClient client;
     private AudioStreamPublisher requestStream;
+    private MulticastAudioStreamPublisher channelStream;
+    private double playbackSpeed = 0; //0 means unpaced
+    private MicrophoneCapture microphoneCapture;
+    private boolean microphoneAlwaysOn = false;
+    private int targetSampleRate = 0; //0 means stream at the source's rate
+    private boolean voiceActivityDetection = false;
+    private VoiceActivityFilter voiceActivityFilter;
+    private boolean channelIdentification = false;
+    private boolean automaticGainControl = false;
+    private boolean noiseFiltering = false;
+    private boolean flacEncoding = false;
+    private volatile AutomaticGainControl gainControl;
 
     public TranscribeStreamingClientWrapper() {
         client = new TranscribeStreamingRetryClient(getClient());
@@ -90,6 +103,143 @@ public class TranscribeStreamingClientWrapper {
         return region;
     }
 
+    /**
+     * Stream audio files at the rate they would play back, rather than as fast as the service accepts them. This makes
+     * file replays behave like live calls and keeps the load they put on the service predictable.
+     * @param realTimePacing True to pace file streams in real time. Microphone streams are always real time.
+     */
+    public void setRealTimePacing(boolean realTimePacing) {
+        this.playbackSpeed = realTimePacing ? 1.0 : 0;
+    }
+
+    /**
+     * Stream audio files at a multiple of real time, for example to backfill archived recordings. The service's demand
+     * still bounds the rate, so it never receives audio faster than it requests it.
+     * @param playbackSpeed Multiple of real time such as 2.0 or 8.0, or 0 to stream files unpaced
+     */
+    public void setPlaybackSpeed(double playbackSpeed) {
+        if (playbackSpeed < 0) {
+            throw new IllegalArgumentException("Playback speed must not be negative");
+        }
+        this.playbackSpeed = playbackSpeed;
+    }
+
+    /**
+     * Resample audio to the given rate before streaming it. 16 kHz is enough for transcription, so converting 44.1 kHz
+     * or 48 kHz sources cuts the audio sent to the service to about a third. The request advertises the converted rate.
+     * @param targetSampleRate Sample rate in Hertz, or 0 to stream audio at its original rate
+     */
+    public void setTargetSampleRate(int targetSampleRate) {
+        if (targetSampleRate < 0) {
+            throw new IllegalArgumentException("Sample rate must not be negative");
+        }
+        this.targetSampleRate = targetSampleRate;
+    }
+
+    /**
+     * Drop silent audio before sending it, keeping a little context around speech and an occasional keepalive frame.
+     * This cuts the audio sent for sparse speech such as call center recordings, at the cost of result times no longer
+     * matching positions in the source.
+     * @param voiceActivityDetection True to suppress silence
+     */
+    public void setVoiceActivityDetection(boolean voiceActivityDetection) {
+        this.voiceActivityDetection = voiceActivityDetection;
+    }
+
+    /**
+     * Send multi-channel audio, such as a stereo call with the agent and customer on separate channels, as is with
+     * channel identification enabled on the request, instead of mixing it down to mono. Mono audio is unaffected.
+     * Voice activity detection only applies to mono audio, so it is skipped for multi-channel streams.
+     * @param channelIdentification True to keep channels and ask the service to identify them
+     */
+    public void setChannelIdentification(boolean channelIdentification) {
+        this.channelIdentification = channelIdentification;
+    }
+
+    /**
+     * Filter out hum below speech frequencies and gate line noise between words before any other processing of mono
+     * audio, so voice activity detection and gain control respond to speech rather than noise
+     * @param noiseFiltering True to apply a high-pass filter and a noise gate
+     */
+    public void setNoiseFiltering(boolean noiseFiltering) {
+        this.noiseFiltering = noiseFiltering;
+    }
+
+    /**
+     * Send audio encoded as lossless FLAC, which roughly halves the bytes sent for speech. When the machine is already
+     * saturated as a stream starts, the stream is sent as PCM instead, since encoding costs CPU time.
+     * @param flacEncoding True to encode audio as FLAC
+     */
+    public void setFlacEncoding(boolean flacEncoding) {
+        this.flacEncoding = flacEncoding;
+    }
+
+    /**
+     * Get the FLAC encoder of the current stream, to read its compression ratio and encoding cost
+     * @return FLAC encoder, or null if the current stream is not FLAC encoded
+     */
+    public FlacEncoder getFlacEncoder() {
+        AudioStreamPublisher publisher = requestStream;
+        return publisher == null ? null : publisher.getFlacEncoder();
+    }
+
+    /**
+     * Level mono audio towards a steady loudness before sending it, which helps with quiet microphones
+     * @param automaticGainControl True to apply automatic gain control
+     */
+    public void setAutomaticGainControl(boolean automaticGainControl) {
+        this.automaticGainControl = automaticGainControl;
+    }
+
+    /**
+     * Get the gain control of the current or last session, to inspect the gain it applies
+     * @return Automatic gain control, or null if it was off
+     */
+    public AutomaticGainControl getAutomaticGainControl() {
+        return gainControl;
+    }
+
+    /**
+     * Get the voice activity filter of the current or last stream, to see how much audio it saved
+     * @return Voice activity filter, or null if voice activity detection was off
+     */
+    public VoiceActivityFilter getVoiceActivityFilter() {
+        return voiceActivityFilter;
+    }
+
+    /**
+     * Open the microphone now and keep it capturing, holding on to the most recent audio. Each microphone stream then
+     * starts with that pre-roll, so the first words of a push-to-talk session are not lost to line opening or
+     * connection setup. The microphone stays open until {@link #close()}.
+     * @param preRollMillis How much audio from before a stream is started to send at its start
+     * @throws LineUnavailableException When a microphone is not detected or isn't properly working
+     */
+    public void openMicrophone(int preRollMillis) throws LineUnavailableException {
+        if (microphoneCapture != null) {
+            microphoneCapture.close();
+        }
+        microphoneCapture = new MicrophoneCapture(openMicrophoneLine(), MicrophoneCapture.DEFAULT_BUFFER_MS,
+                preRollMillis);
+        microphoneAlwaysOn = true;
+    }
+
+    /**
+     * Get the capture of the current or last microphone stream, to inspect its ring buffer fill level and overruns
+     * @return Microphone capture, or null if no microphone stream was started
+     */
+    public MicrophoneCapture getMicrophoneCapture() {
+        return microphoneCapture;
+    }
+
+    /**
+     * Get the measured throughput of the current file stream
+     * @return Seconds of audio sent per second of wall clock time, or 0 if no paced stream is in progress
+     */
+    public double getAudioSecondsPerWallSecond() {
+        AudioStreamPublisher publisher = requestStream;
+        return publisher == null ? 0 : publisher.getAudioSecondsPerWallSecond();
+    }
+
     /**
      * Start real-time speech recognition. Transcribe streaming java client uses Reactive-streams interface.
      * For reference on Reactive-streams: https://github.com/reactive-streams/reactive-streams-jvm
@@ -99,25 +249,129 @@ public class TranscribeStreamingClientWrapper {
      * @param inputFile optional input file to stream audio from. Will stream from the microphone if this is set to null
      */
     public CompletableFuture<Void> startTranscription(StreamTranscriptionBehavior responseHandler, File inputFile) {
-        if (requestStream != null) {
+        if (requestStream != null || channelStream != null) {
             throw new IllegalStateException("Stream is already open");
         }
         try {
-            int sampleRate = 16_000; //default
             if (inputFile != null) {
-                sampleRate = (int) AudioSystem.getAudioInputStream(inputFile).getFormat().getSampleRate();
-                requestStream = new AudioStreamPublisher(getStreamFromFile(inputFile));
+                AudioInputStream fileStream = convertForRequest(getStreamFromFile(inputFile), channelIdentification);
+                return startRequestStream(responseHandler, fileStream, true);
             } else {
-                requestStream = new AudioStreamPublisher(getStreamFromMic());
+                AudioInputStream micStream = AudioPump.pump(convertForRequest(getStreamFromMic(), false), true);
+                return startRequestStream(responseHandler, micStream, false);
             }
-            return client.startStreamTranscription(
-                    //Request parameters. Refer to API documentation for details.
-                    getRequest(sampleRate),
-                    //AudioEvent publisher containing "chunks" of audio data to transcribe
-                    requestStream,
-                    //Defines what to do with transcripts as they arrive from the service
-                    responseHandler);
-        } catch (LineUnavailableException | UnsupportedAudioFileException | IOException ex) {
+        } catch (LineUnavailableException | UnsupportedAudioFileException | IOException | IllegalArgumentException ex) {
+            CompletableFuture<Void> failedFuture = new CompletableFuture<>();
+            failedFuture.completeExceptionally(ex);
+            return failedFuture;
+        }
+    }
+
+    /**
+     * Transcribe several sources together in a single session, for example the microphone and a softphone line. The
+     * sources are aligned in time and either summed to mono or sent as separate channels with channel identification.
+     *
+     * @param responseHandler StartStreamTranscriptionResponseHandler that determines what to do with the response
+     *                        objects as they are received from the streaming service
+     * @param sources Audio sources in any supported format; each is converted to the session's sample rate
+     * @param includeMicrophone True to mix the microphone in as the first source
+     * @param mode Whether to sum the sources to mono or keep each on its own channel
+     */
+    public CompletableFuture<Void> startMixedTranscription(StreamTranscriptionBehavior responseHandler,
+                                                           List<AudioInputStream> sources, boolean includeMicrophone,
+                                                           AudioMixer.Mode mode) {
+        if (requestStream != null || channelStream != null) {
+            throw new IllegalStateException("Stream is already open");
+        }
+        try {
+            List<AudioInputStream> inputs = new ArrayList<>();
+            if (includeMicrophone) {
+                inputs.add(getStreamFromMic());
+            }
+            inputs.addAll(sources);
+            if (inputs.isEmpty()) {
+                throw new IllegalArgumentException("At least one source or the microphone is required");
+            }
+            int sampleRate = targetSampleRate > 0 ? targetSampleRate : Math.round(inputs.get(0).getFormat().getSampleRate());
+            List<AudioInputStream> aligned = new ArrayList<>();
+            for (AudioInputStream input : inputs) {
+                aligned.add(SampleRateConverter.convert(PcmFormatConverter.convert(input), sampleRate));
+            }
+            //Only a mix that includes the microphone runs in real time; a file-only mix must wait for the publisher
+            AudioInputStream mixed = AudioPump.pump(convertForRequest(AudioMixer.mix(aligned, mode), true),
+                    includeMicrophone);
+            //Live microphone audio already paces the mix
+            return startRequestStream(responseHandler, mixed, !includeMicrophone);
+        } catch (LineUnavailableException | IllegalArgumentException ex) {
+            CompletableFuture<Void> failedFuture = new CompletableFuture<>();
+            failedFuture.completeExceptionally(ex);
+            return failedFuture;
+        }
+    }
+
+    /**
+     * Publish converted audio and start a session for it, with the gain control and encoding options applied
+     * @param pacedSource True if the audio comes from a recording and should follow the playback speed setting
+     */
+    private CompletableFuture<Void> startRequestStream(StreamTranscriptionBehavior responseHandler,
+                                                       AudioInputStream stream, boolean pacedSource) {
+        AudioFormat format = stream.getFormat();
+        requestStream = new ReplayableAudioStreamPublisher(stream, format);
+        if (pacedSource && playbackSpeed > 0) {
+            requestStream.setPacing(format, playbackSpeed);
+        }
+        gainControl = null;
+        if (automaticGainControl && format.getChannels() == 1) {
+            requestStream.addChunkProcessor(() -> {
+                AutomaticGainControl sessionGainControl = new AutomaticGainControl(format);
+                gainControl = sessionGainControl;
+                return sessionGainControl;
+            });
+        }
+        boolean flac = flacEncoding && !isCpuSaturated();
+        requestStream.setFlacEncoding(flac);
+        return client.startStreamTranscription(
+                //Request parameters. Refer to API documentation for details.
+                getRequest((int) format.getSampleRate(), format.getChannels(), flac),
+                //AudioEvent publisher containing "chunks" of audio data to transcribe
+                requestStream,
+                //Defines what to do with transcripts as they arrive from the service
+                responseHandler);
+    }
+
+    /**
+     * Transcribe each channel of a multi-channel file, such as a stereo call recording, on its own session. The file
+     * is read once and each session receives its channel as mono audio, so no offline split is needed. A session that
+     * is retried resumes with the audio being read at that time; the audio read while it was down is not transcribed.
+     *
+     * @param responseHandlers One handler per channel, in channel order; the first handles the left channel of stereo
+     * @param inputFile File to stream audio from
+     * @return A future that completes when all sessions have completed
+     */
+    public CompletableFuture<Void> startTranscriptionPerChannel(List<StreamTranscriptionBehavior> responseHandlers,
+                                                                File inputFile) {
+        if (requestStream != null || channelStream != null) {
+            throw new IllegalStateException("Stream is already open");
+        }
+        try {
+            AudioInputStream fileStream = convertForRequest(getStreamFromFile(inputFile), true);
+            AudioFormat format = fileStream.getFormat();
+            if (format.getChannels() != responseHandlers.size()) {
+                throw new IllegalArgumentException("Expected one response handler for each of the "
+                        + format.getChannels() + " channels");
+            }
+            channelStream = new MulticastAudioStreamPublisher(fileStream, format);
+            channelStream.setExpectedSubscribers(responseHandlers.size());
+            CompletableFuture<?>[] sessions = new CompletableFuture<?>[responseHandlers.size()];
+            for (int channel = 0; channel < sessions.length; channel++) {
+                AudioFormat channelFormat = channelStream.getChannelFormat(channel);
+                sessions[channel] = client.startStreamTranscription(
+                        getRequest((int) channelFormat.getSampleRate(), 1, false),
+                        channelStream.channel(channel),
+                        responseHandlers.get(channel));
+            }
+            return CompletableFuture.allOf(sessions);
+        } catch (UnsupportedAudioFileException | IOException | IllegalArgumentException ex) {
             CompletableFuture<Void> failedFuture = new CompletableFuture<>();
             failedFuture.completeExceptionally(ex);
             return failedFuture;
@@ -128,14 +382,13 @@ public class TranscribeStreamingClientWrapper {
      * Stop in-progress transcription if there is one in progress by closing the request stream
      */
     public void stopTranscription() {
-        if (requestStream != null) {
-            try {
-                requestStream.inputStream.close();
-            } catch (IOException ex) {
-                System.out.println("Error stopping input stream: " + ex);
-            } finally {
-                requestStream = null;
-            }
+        try {
+            closeRequestStreams();
+        } catch (IOException ex) {
+            System.out.println("Error stopping input stream: " + ex);
+        } finally {
+            requestStream = null;
+            channelStream = null;
         }
     }
 
@@ -144,22 +397,45 @@ public class TranscribeStreamingClientWrapper {
      */
     public void close() {
         try {
-            if (requestStream != null) {
-                requestStream.inputStream.close();
-            }
+            closeRequestStreams();
         } catch (IOException ex) {
             System.out.println("error closing in-progress microphone stream: " + ex);
         } finally {
+            if (microphoneAlwaysOn) {
+                microphoneCapture.close();
+            }
             client.close();
         }
     }
 
+    private void closeRequestStreams() throws IOException {
+        if (requestStream != null) {
+            requestStream.getInputStream().close();
+        }
+        if (channelStream != null) {
+            channelStream.getInputStream().close();
+        }
+    }
+
     /**
-     * Build an input stream from a microphone if one is present.
-     * @return InputStream containing streaming audio from system's microphone
+     * Build an input stream from a microphone if one is present. Audio is captured on a dedicated thread into a ring
+     * buffer, so a slow stream never backs up into the microphone line. If the microphone was opened ahead of time,
+     * the stream comes from that capture and starts with its pre-roll.
+     * @return AudioInputStream containing streaming audio from system's microphone
      * @throws LineUnavailableException When a microphone is not detected or isn't properly working
      */
-    private static InputStream getStreamFromMic() throws LineUnavailableException {
+    private AudioInputStream getStreamFromMic() throws LineUnavailableException {
+        if (!microphoneAlwaysOn) {
+            microphoneCapture = new MicrophoneCapture(openMicrophoneLine());
+        }
+        return microphoneCapture.getInputStream();
+    }
+
+    /**
+     * @return The system's microphone line, open for 16kHz 16-bit mono capture
+     * @throws LineUnavailableException When a microphone is not detected or isn't properly working
+     */
+    private static TargetDataLine openMicrophoneLine() throws LineUnavailableException {
 
         // Signed PCM AudioFormat with 16kHz, 16 bit sample size, mono
         int sampleRate = 16000;
@@ -167,42 +443,85 @@ public class TranscribeStreamingClientWrapper {
         DataLine.Info info = new DataLine.Info(TargetDataLine.class, format);
 
         if (!AudioSystem.isLineSupported(info)) {
-            System.out.println("Line not supported");
-            System.exit(0);
+            throw new LineUnavailableException("Line not supported");
         }
 
         TargetDataLine line = (TargetDataLine) AudioSystem.getLine(info);
         line.open(format);
-        line.start();
-
-        return new AudioInputStream(line);
+        return line;
     }
 
     /**
-     * Build an input stream from an audio file
+     * Build an input stream from an audio file. The file is opened once, and its header and any metadata chunks are
+     * skipped so only audio samples are streamed.
      * @param inputFile Name of the file containing audio to transcribe
-     * @return InputStream built from reading the file's audio
+     * @return AudioInputStream positioned at the file's first sample, carrying the file's audio format
      */
-    private static InputStream getStreamFromFile(File inputFile) {
-        try {
-            return new FileInputStream(inputFile);
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException(e);
+    private static AudioInputStream getStreamFromFile(File inputFile) throws IOException, UnsupportedAudioFileException {
+        return WavFileParser.open(inputFile);
+    }
+
+    /**
+     * Insert the conversion stages between an audio source and the publisher: any supported sample format is first
+     * normalized to the 16-bit little-endian PCM the request declares, then resampled if a target rate is set. Mono
+     * audio is then cleaned of hum and line noise and stripped of silence if those stages are on.
+     * @param source Audio from a file or the microphone
+     * @param keepChannels True to keep the source's channels, false to mix them down to mono
+     * @return Audio in the format that will be sent to the service
+     */
+    private AudioInputStream convertForRequest(AudioInputStream source, boolean keepChannels) {
+        AudioInputStream converted = PcmFormatConverter.convert(source, keepChannels);
+        if (targetSampleRate > 0) {
+            converted = SampleRateConverter.convert(converted, targetSampleRate);
+        }
+        boolean mono = converted.getFormat().getChannels() == 1;
+        if (noiseFiltering && mono) {
+            AudioFormat format = converted.getFormat();
+            converted = ChunkProcessingStream.apply(converted, new HighPassFilter(format), new NoiseGate(format));
+        }
+        voiceActivityFilter = null;
+        if (voiceActivityDetection && mono) {
+            converted = VoiceActivityFilter.filter(converted);
+            voiceActivityFilter = VoiceActivityFilter.of(converted);
         }
+        return converted;
     }
 
     /**
      * Build StartStreamTranscriptionRequestObject containing required parameters to open a streaming transcription
      * request, such as audio sample rate and language spoken in audio
      * @param mediaSampleRateHertz sample rate of the audio to be streamed to the service in Hertz
+     * @param channels number of interleaved channels in the audio; more than one enables channel identification
+     * @param flac true if the audio is sent FLAC encoded rather than as PCM
      * @return StartStreamTranscriptionRequest to be used to open a stream to transcription service
      */
-    private StartStreamTranscriptionRequest getRequest(Integer mediaSampleRateHertz) {
-        return StartStreamTranscriptionRequest.builder()
+    private StartStreamTranscriptionRequest getRequest(Integer mediaSampleRateHertz, int channels, boolean flac) {
+        StartStreamTranscriptionRequest.Builder builder = StartStreamTranscriptionRequest.builder()
                 .languageCode(LanguageCode.EN_US.toString())
-                .mediaEncoding(MediaEncoding.PCM)
-                .mediaSampleRateHertz(mediaSampleRateHertz)
-                .build();
+                .mediaSampleRateHertz(mediaSampleRateHertz);
+        if (flac) {
+            //This SDK version's MediaEncoding enum only has PCM, but the request accepts the encoding by name
+            builder.mediaEncoding(FlacEncoder.getMediaEncoding());
+        } else {
+            builder.mediaEncoding(MediaEncoding.PCM);
+        }
+        if (channels > 1) {
+            //This SDK version has no request fields for channel identification, so set the headers they map to
+            builder.overrideConfiguration(o -> o
+                    .putHeader(CHANNEL_IDENTIFICATION_HEADER, "true")
+                    .putHeader(NUMBER_OF_CHANNELS_HEADER, Integer.toString(channels)));
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return True if the system load average has reached the number of processors, so there is no CPU to spare for
+     * encoding. Platforms that do not report a load average are assumed not to be saturated.
+     */
+    private static boolean isCpuSaturated() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        double load = os.getSystemLoadAverage();
+        return load >= os.getAvailableProcessors();
     }
 
     /**
@@ -213,21 +532,4 @@ public class TranscribeStreamingClientWrapper {
     private static AwsCredentialsProvider getCredentials() {
         return DefaultCredentialsProvider.create();
     }
-
-    /**
-     * AudioStreamPublisher implements audio stream publisher.
-     * AudioStreamPublisher emits audio stream asynchronously in a separate thread
-     */
-    private static class AudioStreamPublisher implements Publisher<AudioStream> {
-        private final InputStream inputStream;
-
-        private AudioStreamPublisher(InputStream inputStream) {
-            this.inputStream = inputStream;
-        }
-
-        @Override
-        public void subscribe(Subscriber<? super AudioStream> s) {
-            s.onSubscribe(new ByteToAudioEventSubscription(s, inputStream));
-        }
-    }
-}
+}
\ No newline at end of file
@@ -19,11 +19,20 @@ package com.amazonaws.transcribestreaming;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.signer.EventStreamAws4Signer;
 import software.amazon.awssdk.core.client.config.SdkAdvancedClientOption;
@@ -40,9 +49,33 @@ public class TranscribeStreamingRetryClient {
 
     private static final int DEFAULT_MAX_RETRIES = 10;
     private static final int DEFAULT_MAX_SLEEP_TIME_MILLS = 100;
+    private static final int DEFAULT_MAX_BACKOFF_MILLIS = 10000;
+    //The service ends a stream after four hours, so rotate well before that
+    private static final long DEFAULT_SESSION_ROTATION_MILLIS = TimeUnit.MINUTES.toMillis(225);
+    private static final long ROTATION_RETRY_DELAY_MILLIS = 5000;
+    private static final double TIME_TOLERANCE_SECONDS = 0.001;
+    private static final String RETRY_THREAD_NAME_PREFIX = "transcribe-retry-";
+    private static ScheduledExecutorService defaultRetryScheduler;
     private int maxRetries = DEFAULT_MAX_RETRIES;
     private int sleepTime = DEFAULT_MAX_SLEEP_TIME_MILLS;
+    private int maxBackoff = DEFAULT_MAX_BACKOFF_MILLIS;
+    private Jitter jitter = Jitter.FULL;
+    private RetryBudget retryBudget = RetryBudget.getDefault();
+    private long sessionRotation = DEFAULT_SESSION_ROTATION_MILLIS;
     private final TranscribeStreamingAsyncClient client;
+    private ScheduledExecutorService retryScheduler;
+
+    /**
+     * How the delay before a retry is randomized, so streams that failed together do not reconnect together
+     */
+    public enum Jitter {
+        /** Plain exponential backoff: the sleep time doubled for every attempt, up to the maximum backoff */
+        NONE,
+        /** A random delay between zero and the exponential backoff */
+        FULL,
+        /** A random delay between the sleep time and three times the previous delay, up to the maximum backoff */
+        DECORRELATED
+    }
     List<Class<?>> nonRetriableExceptions = Arrays.asList(BadRequestException.class);
 
     /**
@@ -70,7 +103,29 @@ public class TranscribeStreamingRetryClient {
      * @param client TranscribeStreamingAsyncClient
      */
     public TranscribeStreamingRetryClient(TranscribeStreamingAsyncClient client) {
+        this(client, getDefaultRetryScheduler());
+    }
+
+    /**
+     * Initiate TranscribeStreamingRetryClient with TranscribeStreamingAsyncClient and a scheduler for retries
+     * @param client TranscribeStreamingAsyncClient
+     * @param retryScheduler Scheduler retry attempts are started on after their delay
+     */
+    public TranscribeStreamingRetryClient(TranscribeStreamingAsyncClient client,
+                                          ScheduledExecutorService retryScheduler) {
         this.client = client;
+        setRetryScheduler(retryScheduler);
+    }
+
+    /**
+     * Get the scheduler shared by retry clients created without one, creating it on first use. Retry attempts only
+     * occupy its thread long enough to start a new request, so a single daemon thread serves every stream.
+     */
+    private static synchronized ScheduledExecutorService getDefaultRetryScheduler() {
+        if (defaultRetryScheduler == null) {
+            defaultRetryScheduler = AudioEmissionScheduler.newScheduler(1, RETRY_THREAD_NAME_PREFIX);
+        }
+        return defaultRetryScheduler;
     }
 
     /**
@@ -82,7 +137,7 @@ public class TranscribeStreamingRetryClient {
     }
 
     /**
-     * Set Max retries
+     * Set Max retries. They count consecutive failed attempts; a session that delivers results starts the count over.
      * @param  maxRetries Max retries
      */
     public void setMaxRetries(int maxRetries) {
@@ -98,13 +153,106 @@ public class TranscribeStreamingRetryClient {
     }
 
     /**
-     * Set sleep time between retries
+     * Set sleep time between retries. This is the base of the exponential backoff: the delay before the first retry,
+     * doubled for every further attempt.
      * @param sleepTime sleep time
      */
     public void setSleepTime(int sleepTime) {
         this.sleepTime = sleepTime;
     }
 
+    /**
+     * Get the maximum backoff
+     * @return Longest delay between retries in milliseconds
+     */
+    public int getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    /**
+     * Set the longest delay between retries, however many attempts were made
+     * @param maxBackoff Maximum backoff in milliseconds
+     */
+    public void setMaxBackoff(int maxBackoff) {
+        if (maxBackoff <= 0) {
+            throw new IllegalArgumentException("Maximum backoff must be positive");
+        }
+        this.maxBackoff = maxBackoff;
+    }
+
+    /**
+     * Get the jitter applied to the backoff
+     * @return Jitter
+     */
+    public Jitter getJitter() {
+        return jitter;
+    }
+
+    /**
+     * Set how the backoff is randomized. Defaults to full jitter.
+     * @param jitter Jitter to apply
+     */
+    public void setJitter(Jitter jitter) {
+        if (jitter == null) {
+            throw new IllegalArgumentException("Jitter must not be null");
+        }
+        this.jitter = jitter;
+    }
+
+    /**
+     * Get the retry budget
+     * @return Budget this client's retries are drawn from
+     */
+    public RetryBudget getRetryBudget() {
+        return retryBudget;
+    }
+
+    /**
+     * Set the budget retries are drawn from. Defaults to the process-wide {@link RetryBudget#getDefault()}, shared
+     * by all retry clients, so retries after an outage stay a bounded fraction of the streams being started.
+     * @param retryBudget Retry budget
+     */
+    public void setRetryBudget(RetryBudget retryBudget) {
+        if (retryBudget == null) {
+            throw new IllegalArgumentException("Retry budget must not be null");
+        }
+        this.retryBudget = retryBudget;
+    }
+
+    /**
+     * Get the session rotation interval
+     * @return Time in milliseconds after which a session is replaced, or 0 if sessions are not rotated
+     */
+    public long getSessionRotation() {
+        return sessionRotation;
+    }
+
+    /**
+     * Set how long a session runs before it is replaced by a new one, ahead of the service's maximum stream duration.
+     * The new session is opened while the old one is still running and takes over at a final result, so results
+     * continue without a gap. Only streams from a {@link ReplayableAudioStreamPublisher} are rotated, as the new
+     * session needs to replay the audio the old one has not finalized. Defaults to 3 hours 45 minutes.
+     * @param sessionRotation Rotation interval in milliseconds, or 0 to let sessions run until the service ends them
+     */
+    public void setSessionRotation(long sessionRotation) {
+        if (sessionRotation < 0) {
+            throw new IllegalArgumentException("Session rotation must not be negative");
+        }
+        this.sessionRotation = sessionRotation;
+    }
+
+    /**
+     * Set the scheduler retry attempts are started on. Waiting between attempts never blocks the SDK thread that
+     * reported the failure.
+     * @param retryScheduler Scheduler for retry attempts, shared with other clients if desired
+     */
+    public void setRetryScheduler(ScheduledExecutorService retryScheduler) {
+        if (retryScheduler == null) {
+            throw new IllegalArgumentException("Retry scheduler must not be null");
+        }
+        this.retryScheduler = retryScheduler;
+    }
+
     /**
      * Initiate a Stream Transcription with retry.
      * @param request StartStreamTranscriptionRequest to use to start transcription
@@ -119,53 +267,483 @@ public class TranscribeStreamingRetryClient {
 
         CompletableFuture<Void> finalFuture = new CompletableFuture<>();
 
-        recursiveStartStream(rebuildRequestWithSession(request), publisher, responseHandler, finalFuture, 0);
+        retryBudget.recordRequest();
+        new RetryingStream(rebuildRequestWithSession(request), publisher, responseHandler, finalFuture).startAttempt();
 
         return finalFuture;
     }
 
     /**
-     * Recursively call startStreamTranscription() to be called till the request is completed or till we run out of retries.
-     * @param request StartStreamTranscriptionRequest
-     * @param publisher The source audio stream as Publisher
-     * @param responseHandler StreamTranscriptionBehavior object that defines how the response needs to be handled.
-     * @param finalFuture final future to finish on completing the chained futures.
-     * @param retryAttempt Current attempt number
-     */
-    private void recursiveStartStream(final StartStreamTranscriptionRequest request,
-                                      final Publisher<AudioStream> publisher,
-                                      final StreamTranscriptionBehavior responseHandler,
-                                      final CompletableFuture<Void> finalFuture,
-                                      final int retryAttempt) {
-        CompletableFuture<Void> result = client.startStreamTranscription(request, publisher,
-                                                                         getResponseHandler(responseHandler));
-        result.whenComplete((r, e) -> {
-            if (e != null) {
+     * One transcription and its chain of sessions. Each attempt is started afresh, either directly or from the retry
+     * scheduler after the sleep time, so the chain neither grows the stack nor blocks the thread that completed the
+     * failed attempt.
+     *
+     * With a replayable publisher, the primary session is also rotated before it reaches the service's maximum stream
+     * duration. A successor session is opened early and resumes at the primary's last final result, so it overlaps
+     * the primary by the audio that is not final yet. That final result is the cut-over boundary: the primary keeps
+     * delivering partial results, but its final results are held back until the successor produces its first final
+     * result. Then the stream cuts over to the successor and the primary is ended. Should the successor fail instead,
+     * the held results are passed on and the primary carries on. Callbacks are made while holding this stream's lock,
+     * so events of overlapping sessions are never passed on concurrently.
+     */
+    private final class RetryingStream {
+        private final StartStreamTranscriptionRequest request;
+        private final Publisher<AudioStream> publisher;
+        private final StreamTranscriptionBehavior responseHandler;
+        private final CompletableFuture<Void> finalFuture;
+        private final Object subscribeLock = new Object();
+        private int retryAttempt = 0;
+        private long previousDelay = 0;
+        private Session primary;
+        private Session successor;
+        private double timelineEnd = 0;
+        private double lastFinalEnd = Double.NEGATIVE_INFINITY;
+        private final List<TranscriptResultStream> heldFinals = new ArrayList<>();
 
-                if (retryAttempt <= maxRetries && isExceptionRetriable(e)) {
-                    System.out.println("Retry attempt:" + (retryAttempt+1) );
+        private RetryingStream(StartStreamTranscriptionRequest request, Publisher<AudioStream> publisher,
+                               StreamTranscriptionBehavior responseHandler, CompletableFuture<Void> finalFuture) {
+            this.request = request;
+            this.publisher = publisher;
+            this.responseHandler = responseHandler;
+            this.finalFuture = finalFuture;
+        }
 
-                    try {
-                        Thread.sleep(sleepTime);
-                    } catch (InterruptedException e1) {
-                        e1.printStackTrace();
+        private void startAttempt() {
+            if (finalFuture.isDone()) {
+                //Cancelled by the caller while waiting to retry
+                return;
+            }
+            Session session;
+            synchronized (this) {
+                session = new Session(request);
+                promote(session);
+            }
+            session.start();
+        }
+
+        /**
+         * Make a session the one whose results are passed on
+         */
+        private void promote(Session session) {
+            primary = session;
+            session.trimBefore = lastFinalEnd;
+            scheduleRotation(session, sessionRotation);
+        }
+
+        private void scheduleRotation(Session session, long delayMillis) {
+            if (sessionRotation <= 0 || !(publisher instanceof ReplayableAudioStreamPublisher)) {
+                return;
+            }
+            try {
+                session.rotation = retryScheduler.schedule(() -> rotate(session), delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                //Without a scheduler the session simply runs until the service ends it
+            }
+        }
+
+        /**
+         * Open a successor to a primary session that is approaching the maximum stream duration
+         */
+        private void rotate(Session session) {
+            Session next;
+            synchronized (this) {
+                if (finalFuture.isDone() || session != primary || successor != null) {
+                    return;
+                }
+                System.out.println("Rotating session after " + sessionRotation + " ms");
+                next = new Session(rebuildRequestWithSession(request));
+                successor = next;
+            }
+            next.start();
+        }
+
+        /**
+         * Pass an event on if it belongs to the primary session, cutting over to the successor once it has caught up
+         */
+        private synchronized void onEvent(Session session, TranscriptResultStream event) {
+            if (session.retired) {
+                return;
+            }
+            if (session == successor) {
+                if (!finalizesPast(event, session.offset, lastFinalEnd)) {
+                    //Still catching up on audio the primary is transcribing
+                    return;
+                }
+                System.out.println("Cutting over to rotated session at " + Math.max(lastFinalEnd, 0) + " s");
+                heldFinals.clear();
+                primary.retire();
+                successor = null;
+                promote(session);
+            } else if (session != primary) {
+                return;
+            }
+            TranscriptResultStream rebased = rebase(event, session);
+            if (!session.delivered && rebased instanceof TranscriptEvent) {
+                //A session that delivers results has recovered, so later failures back off from the start again
+                session.delivered = true;
+                retryAttempt = 0;
+                previousDelay = 0;
+            }
+            if (successor != null && rebased instanceof TranscriptEvent) {
+                //The successor transcribes this audio again from the boundary, so only pass on partial results
+                TranscriptEvent transcriptEvent = (TranscriptEvent) rebased;
+                List<Result> partials = new ArrayList<>();
+                List<Result> finals = new ArrayList<>();
+                for (Result result : transcriptEvent.transcript().results()) {
+                    (result.isPartial() ? partials : finals).add(result);
+                }
+                if (!finals.isEmpty()) {
+                    heldFinals.add(withResults(transcriptEvent, finals));
+                    if (partials.isEmpty()) {
+                        return;
                     }
-                    recursiveStartStream(request, publisher, responseHandler, finalFuture, retryAttempt + 1);
-                } else {
-                    responseHandler.onError(e);
-                    finalFuture.completeExceptionally(e);
+                    rebased = withResults(transcriptEvent, partials);
+                }
+            }
+            pass(rebased);
+        }
+
+        /**
+         * Pass on the final results held back during an overlap that did not complete
+         */
+        private void releaseHeldFinals() {
+            for (TranscriptResultStream event : heldFinals) {
+                pass(event);
+            }
+            heldFinals.clear();
+        }
+
+        private void pass(TranscriptResultStream event) {
+            if (event instanceof TranscriptEvent) {
+                for (Result result : ((TranscriptEvent) event).transcript().results()) {
+                    if (result.endTime() != null) {
+                        timelineEnd = Math.max(timelineEnd, result.endTime());
+                        if (!result.isPartial()) {
+                            lastFinalEnd = Math.max(lastFinalEnd, result.endTime());
+                        }
+                    }
+                }
+                if (publisher instanceof ReplayableAudioStreamPublisher) {
+                    confirmFinalResults(event, (ReplayableAudioStreamPublisher) publisher);
+                }
+            }
+            responseHandler.onStream(event);
+        }
+
+        private void onSessionEnded(Session session, Throwable e) {
+            synchronized (this) {
+                if (session.retired) {
+                    return;
                 }
+                //The service already closed this session, so only stop passing on its events
+                session.retired = true;
+                session.cancelRotation();
+                if (session == successor) {
+                    //The primary is still running, so try rotating again a little later
+                    successor = null;
+                    releaseHeldFinals();
+                    scheduleRotation(primary, ROTATION_RETRY_DELAY_MILLIS);
+                    return;
+                }
+                if (successor != null) {
+                    Session next = successor;
+                    successor = null;
+                    if (e != null) {
+                        //The primary hit the limit or failed first; the successor already has the audio since
+                        System.out.println("Session ended during rotation, handing over to its successor");
+                        heldFinals.clear();
+                        promote(next);
+                        return;
+                    }
+                    releaseHeldFinals();
+                    next.retire();
+                }
+            }
+            if (e != null) {
+                onAttemptFailed(e);
             } else {
                 responseHandler.onComplete();
                 finalFuture.complete(null);
             }
-        });
+        }
+
+        private synchronized void onAttemptFailed(Throwable e) {
+            if (retryAttempt <= maxRetries && isExceptionRetriable(e)) {
+                if (retryBudget.tryAcquireRetry()) {
+                    long delay = nextDelay();
+                    retryAttempt++;
+                    System.out.println("Retry attempt:" + retryAttempt + " in " + delay + " ms");
+                    try {
+                        retryScheduler.schedule(this::startAttempt, delay, TimeUnit.MILLISECONDS);
+                        return;
+                    } catch (RejectedExecutionException rejected) {
+                        e.addSuppressed(rejected);
+                    }
+                } else {
+                    System.out.println("Retry budget exhausted, not retrying");
+                }
+            }
+            responseHandler.onError(e);
+            finalFuture.completeExceptionally(e);
+        }
+
+        /**
+         * @return True if the event has a final result ending after the given time on the stream's timeline
+         */
+        private boolean finalizesPast(TranscriptResultStream event, double offset, double time) {
+            if (!(event instanceof TranscriptEvent)) {
+                return false;
+            }
+            for (Result result : ((TranscriptEvent) event).transcript().results()) {
+                if (!result.isPartial() && result.endTime() != null
+                        && result.endTime() + offset > time + TIME_TOLERANCE_SECONDS) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Shift the result times of a session's event onto the timeline of the whole stream, so results stay
+         * monotonic across reconnects, and drop words that an earlier session already finalized
+         * @param event Event with times relative to the start of the session
+         * @param session Session the event belongs to
+         * @return Event with times relative to the start of the stream
+         */
+        private TranscriptResultStream rebase(TranscriptResultStream event, Session session) {
+            if (!(event instanceof TranscriptEvent)) {
+                return event;
+            }
+            TranscriptEvent transcriptEvent = (TranscriptEvent) event;
+            double offset = session.offset;
+            boolean changed = offset != 0;
+            List<Result> results = new ArrayList<>();
+            for (Result result : transcriptEvent.transcript().results()) {
+                Result shifted = offset == 0 ? result : rebase(result, offset);
+                Result rebased = trim(shifted, session.trimBefore);
+                if (rebased != shifted) {
+                    changed = true;
+                }
+                if (rebased != null) {
+                    results.add(rebased);
+                }
+            }
+            return changed ? withResults(transcriptEvent, results) : event;
+        }
+
+        private TranscriptEvent withResults(TranscriptEvent event, List<Result> results) {
+            return event.toBuilder()
+                    .transcript(event.transcript().toBuilder().results(results).build())
+                    .build();
+        }
+
+        private Result rebase(Result result, double offset) {
+            List<Alternative> alternatives = new ArrayList<>();
+            for (Alternative alternative : result.alternatives()) {
+                List<Item> items = new ArrayList<>();
+                for (Item item : alternative.items()) {
+                    items.add(item.toBuilder()
+                            .startTime(shift(item.startTime(), offset))
+                            .endTime(shift(item.endTime(), offset))
+                            .build());
+                }
+                alternatives.add(alternative.toBuilder().items(items).build());
+            }
+            return result.toBuilder()
+                    .startTime(shift(result.startTime(), offset))
+                    .endTime(shift(result.endTime(), offset))
+                    .alternatives(alternatives)
+                    .build();
+        }
+
+        private Double shift(Double time, double offset) {
+            return time == null ? null : time + offset;
+        }
+
+        /**
+         * Remove the part of a result that lies before an earlier session's last final result
+         * @return The result, a copy holding only the words from the given time on, or null if nothing is left
+         */
+        private Result trim(Result result, double from) {
+            double limit = from - TIME_TOLERANCE_SECONDS;
+            if (result.endTime() != null && result.endTime() <= from + TIME_TOLERANCE_SECONDS) {
+                return null;
+            }
+            if (result.startTime() == null || result.startTime() >= limit) {
+                return result;
+            }
+            List<Alternative> alternatives = new ArrayList<>();
+            for (Alternative alternative : result.alternatives()) {
+                if (alternative.items().isEmpty()) {
+                    //Without word timings the transcript cannot be split, so keep it whole
+                    alternatives.add(alternative);
+                    continue;
+                }
+                List<Item> items = new ArrayList<>();
+                StringBuilder transcript = new StringBuilder();
+                for (Item item : alternative.items()) {
+                    if (item.startTime() != null && item.startTime() < limit) {
+                        continue;
+                    }
+                    if (transcript.length() > 0 && item.type() != ItemType.PUNCTUATION) {
+                        transcript.append(' ');
+                    }
+                    transcript.append(item.content());
+                    items.add(item);
+                }
+                alternatives.add(alternative.toBuilder().items(items).transcript(transcript.toString()).build());
+            }
+            return result.toBuilder()
+                    .startTime(from)
+                    .alternatives(alternatives)
+                    .build();
+        }
+
+        /**
+         * @return Delay before the next retry in milliseconds, following the configured backoff and jitter
+         */
+        private long nextDelay() {
+            long base = Math.max(sleepTime, 0);
+            long cap = Math.max(maxBackoff, base);
+            long delay;
+            if (jitter == Jitter.DECORRELATED) {
+                long upper = Math.min(cap, Math.max(base, previousDelay) * 3);
+                delay = upper > base ? ThreadLocalRandom.current().nextLong(base, upper + 1) : base;
+            } else {
+                //Shifting by 30 or more would overflow, and is far past any sensible cap anyway
+                long backoff = Math.min(cap, base << Math.min(retryAttempt, 30));
+                delay = jitter == Jitter.FULL ? ThreadLocalRandom.current().nextLong(backoff + 1) : backoff;
+            }
+            previousDelay = delay;
+            return delay;
+        }
+
+        /**
+         * One service session of the stream. The session subscribes to the publisher through itself, so it learns
+         * where its audio starts and can end its audio stream once a successor has taken over.
+         */
+        private final class Session implements Publisher<AudioStream> {
+            private final StartStreamTranscriptionRequest sessionRequest;
+            private final double fallbackOffset;
+            private volatile double offset;
+            private double trimBefore = Double.NEGATIVE_INFINITY;
+            private boolean retired = false;
+            private boolean delivered = false;
+            private ScheduledFuture<?> rotation;
+            private SessionAudio audio;
+
+            private Session(StartStreamTranscriptionRequest sessionRequest) {
+                this.sessionRequest = sessionRequest;
+                //Without an offset from the publisher, the session continues where the previous one's results ended
+                this.fallbackOffset = timelineEnd;
+                this.offset = fallbackOffset;
+            }
+
+            private void start() {
+                CompletableFuture<Void> result = client.startStreamTranscription(sessionRequest, this,
+                        getResponseHandler(responseHandler, event -> onEvent(this, event)));
+                result.whenComplete((r, e) -> onSessionEnded(this, e));
+            }
+
+            @Override
+            public void subscribe(Subscriber<? super AudioStream> s) {
+                SessionAudio sessionAudio = new SessionAudio(s);
+                synchronized (subscribeLock) {
+                    publisher.subscribe(sessionAudio);
+                    double start = publisher instanceof AudioStreamPublisher
+                            ? ((AudioStreamPublisher) publisher).getSessionStartSeconds() : -1;
+                    offset = start >= 0 ? start : fallbackOffset;
+                }
+                synchronized (RetryingStream.this) {
+                    audio = sessionAudio;
+                    if (retired) {
+                        sessionAudio.end();
+                    }
+                }
+            }
+
+            /**
+             * Stop passing on this session's events and end its audio, so the service closes it normally
+             */
+            private void retire() {
+                retired = true;
+                cancelRotation();
+                if (audio != null) {
+                    audio.end();
+                }
+            }
+
+            private void cancelRotation() {
+                if (rotation != null) {
+                    rotation.cancel(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Subscriber between the publisher and the SDK for one session, which can complete the session's audio stream
+     * early without upsetting the publisher's own subscription
+     */
+    private static final class SessionAudio implements Subscriber<AudioStream> {
+        private final Subscriber<? super AudioStream> downstream;
+        private Subscription upstream;
+        private boolean ended = false;
+
+        private SessionAudio(Subscriber<? super AudioStream> downstream) {
+            this.downstream = downstream;
+        }
+
+        @Override
+        public synchronized void onSubscribe(Subscription subscription) {
+            upstream = subscription;
+            downstream.onSubscribe(subscription);
+            if (ended) {
+                subscription.cancel();
+                downstream.onComplete();
+            }
+        }
+
+        @Override
+        public synchronized void onNext(AudioStream audioStream) {
+            if (!ended) {
+                downstream.onNext(audioStream);
+            }
+        }
+
+        @Override
+        public synchronized void onError(Throwable t) {
+            if (!ended) {
+                ended = true;
+                downstream.onError(t);
+            }
+        }
+
+        @Override
+        public synchronized void onComplete() {
+            if (!ended) {
+                ended = true;
+                downstream.onComplete();
+            }
+        }
+
+        /**
+         * Stop reading audio and complete the stream, unless it already ended
+         */
+        private synchronized void end() {
+            if (ended) {
+                return;
+            }
+            ended = true;
+            if (upstream != null) {
+                upstream.cancel();
+                downstream.onComplete();
+            }
+        }
     }
+
     private StartStreamTranscriptionRequest rebuildRequestWithSession(StartStreamTranscriptionRequest request) {
-        return StartStreamTranscriptionRequest.builder()
-                .languageCode(request.languageCode())
-                .mediaEncoding(request.mediaEncoding())
-                .mediaSampleRateHertz(request.mediaSampleRateHertz())
+        return request.toBuilder()
                 .sessionId(UUID.randomUUID().toString())
                 .build();
     }
@@ -173,9 +751,11 @@ public class TranscribeStreamingRetryClient {
     /**
      * StartStreamTranscriptionResponseHandler implements subscriber of transcript stream
      * Output is printed to standard output
+     * Events are handed to the retrying stream, which rebases their result times onto the timeline of the whole
+     * stream, confirms final results to a replayable publisher and passes them on.
      */
     private StartStreamTranscriptionResponseHandler getResponseHandler(
-            StreamTranscriptionBehavior transcriptionBehavior) {
+            StreamTranscriptionBehavior transcriptionBehavior, Consumer<TranscriptResultStream> events) {
         final StartStreamTranscriptionResponseHandler build = StartStreamTranscriptionResponseHandler.builder()
                 .onResponse(r -> {
                     transcriptionBehavior.onResponse(r);
@@ -187,11 +767,26 @@ public class TranscribeStreamingRetryClient {
                     //Do nothing here. Make sure you don't close any streams that should not be cleaned up yet.
                 })
 
-                .subscriber(event -> transcriptionBehavior.onStream(event))
+                .subscriber(events)
                 .build();
         return build;
     }
 
+    /**
+     * Tell a replayable publisher which audio is covered by final results, so it is not re-sent after a reconnect
+     * @param event Event with result times on the timeline of the whole stream
+     */
+    private void confirmFinalResults(TranscriptResultStream event, ReplayableAudioStreamPublisher publisher) {
+        if (!(event instanceof TranscriptEvent)) {
+            return;
+        }
+        for (Result result : ((TranscriptEvent) event).transcript().results()) {
+            if (!result.isPartial() && result.endTime() != null) {
+                publisher.confirmStreamTime(result.endTime());
+            }
+        }
+    }
+
     /**
      * Check if the exception is retriable or not.
      * @param e Exception that occurred
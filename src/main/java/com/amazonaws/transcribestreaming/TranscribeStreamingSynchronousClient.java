@@ -25,10 +25,10 @@ import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTran
 import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionResponseHandler;
 import software.amazon.awssdk.services.transcribestreaming.model.TranscriptEvent;
 
-import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.UnsupportedAudioFileException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
@@ -52,13 +52,17 @@ public class TranscribeStreamingSynchronousClient {
 
     public String transcribeFile(File audioFile) {
         try {
-            int sampleRate = (int) AudioSystem.getAudioInputStream(audioFile).getFormat().getSampleRate();
+            //Normalize 8/24/32-bit, float and multi-channel files to the 16-bit mono PCM the request declares
+            AudioInputStream fileStream = PcmFormatConverter.convert(WavFileParser.open(audioFile));
+            AudioFormat format = fileStream.getFormat();
+            int sampleRate = (int) format.getSampleRate();
             StartStreamTranscriptionRequest request = StartStreamTranscriptionRequest.builder()
                     .languageCode(LanguageCode.EN_US.toString())
                     .mediaEncoding(MediaEncoding.PCM)
                     .mediaSampleRateHertz(sampleRate)
                     .build();
-            AudioStreamPublisher audioStream = new AudioStreamPublisher(new FileInputStream(audioFile));
+            AudioStreamPublisher audioStream = new AudioStreamPublisher(fileStream);
+            audioStream.setAudioFormat(format);
             StartStreamTranscriptionResponseHandler responseHandler = getResponseHandler();
             System.out.println("launching request");
             CompletableFuture<Void> resultFuture = asyncClient.startStreamTranscription(request, audioStream, responseHandler);
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.transcribestreaming;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Voice activity detection stage for 16-bit signed little-endian mono PCM that drops silent audio before it becomes
+ * AudioEvents. Audio is analysed in {@value #FRAME_MS} ms frames: a frame is speech when its energy is well above an
+ * adaptive noise floor, or moderately above it with a zero-crossing rate typical of unvoiced consonants. The noise
+ * floor follows silent frames, and while speech goes on it rises towards the quietest frames of the last few seconds,
+ * so background noise that gets louder is not taken for speech for good.
+ *
+ * After speech stops, audio keeps flowing for a hangover period so trailing words are not clipped, and the last
+ * moments of silence before speech starts are kept as pre-roll and sent ahead of it. While audio is suppressed, one
+ * frame is let through every keepalive interval so the service does not time the stream out.
+ *
+ * Dropping silence shortens the audio the service sees, so result times refer to the filtered audio, not the source.
+ */
+public final class VoiceActivityFilter extends InputStream {
+
+    public static final int DEFAULT_HANGOVER_MS = 500;
+    public static final int DEFAULT_PRE_ROLL_MS = 300;
+    public static final int DEFAULT_KEEPALIVE_MS = 5000;
+    private static final int FRAME_MS = 20;
+    private static final double SPEECH_MARGIN_DB = 12;
+    private static final double FRICATIVE_MARGIN_DB = 6;
+    private static final double FRICATIVE_MIN_ZCR = 0.3;
+    private static final double MIN_NOISE_FLOOR_DB = -70;
+    private static final double NOISE_FLOOR_ADAPTATION = 0.05;
+    private static final int NOISE_MINIMUM_WINDOWS = 5;
+    private static final int NOISE_MINIMUM_WINDOW_FRAMES = 1000 / FRAME_MS;
+
+    private final InputStream in;
+    private final int frameBytes;
+    private final int hangoverFrames;
+    private final int keepaliveFrames;
+    private final byte[] frame;
+    private final byte[] preRoll;
+    private final int preRollFrames;
+    private final byte[] pending;
+    private int preRollStart = 0;
+    private int preRollCount = 0;
+    private int pendingStart = 0;
+    private int pendingEnd = 0;
+    private double noiseFloorDb = -50;
+    private final double[] windowMinimaDb = new double[NOISE_MINIMUM_WINDOWS];
+    private int minimumWindow = 0;
+    private int minimumWindowFrames = 0;
+    private double currentMinimumDb = Double.POSITIVE_INFINITY;
+    private int framesSinceSpeech = Integer.MAX_VALUE;
+    private int framesSinceSent = 0;
+    private boolean eof = false;
+    private long bytesIn = 0;
+    private long bytesOut = 0;
+
+    private VoiceActivityFilter(InputStream in, AudioFormat format, int hangoverMillis, int preRollMillis,
+                                int keepaliveMillis) {
+        this.in = in;
+        this.frameBytes = AudioFormats.bytesForDuration(format, FRAME_MS);
+        this.hangoverFrames = hangoverMillis / FRAME_MS;
+        this.keepaliveFrames = Math.max(1, keepaliveMillis / FRAME_MS);
+        this.preRollFrames = preRollMillis / FRAME_MS;
+        this.frame = new byte[frameBytes];
+        this.preRoll = new byte[preRollFrames * frameBytes];
+        this.pending = new byte[(preRollFrames + 1) * frameBytes];
+        //Until every window has been seen there is no minimum the floor could rise to
+        Arrays.fill(windowMinimaDb, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Filter silence out of a stream with the default hangover, pre-roll and keepalive settings
+     * @param source 16-bit signed little-endian mono PCM
+     * @return The filtered stream
+     */
+    public static AudioInputStream filter(AudioInputStream source) {
+        return filter(source, DEFAULT_HANGOVER_MS, DEFAULT_PRE_ROLL_MS, DEFAULT_KEEPALIVE_MS);
+    }
+
+    /**
+     * Filter silence out of a stream
+     * @param source 16-bit signed little-endian mono PCM
+     * @param hangoverMillis How long to keep sending audio after speech stops
+     * @param preRollMillis How much audio from before speech starts to send along with it
+     * @param keepaliveMillis How often to let a frame through while audio is suppressed
+     * @return The filtered stream. Its underlying VoiceActivityFilter can be found with {@link #of(AudioInputStream)}.
+     */
+    public static AudioInputStream filter(AudioInputStream source, int hangoverMillis, int preRollMillis,
+                                          int keepaliveMillis) {
+        AudioFormat format = source.getFormat();
+        if (!PcmFormatConverter.isPcm16Mono(format)) {
+            throw new IllegalArgumentException("Voice activity detection requires 16-bit little-endian mono PCM: "
+                    + format);
+        }
+        VoiceActivityFilter filter = new VoiceActivityFilter(source, format, hangoverMillis, preRollMillis,
+                keepaliveMillis);
+        return new FilteredStream(filter, format);
+    }
+
+    /**
+     * @param stream A stream returned by {@link #filter(AudioInputStream)}
+     * @return The filter behind the stream, to read its statistics, or null if the stream is not filtered
+     */
+    public static VoiceActivityFilter of(AudioInputStream stream) {
+        return stream instanceof FilteredStream ? ((FilteredStream) stream).filter : null;
+    }
+
+    /**
+     * @return Percentage of the source bytes that were not sent, between 0 and 100
+     */
+    public synchronized double getBytesSavedPercent() {
+        return bytesIn == 0 ? 0 : 100.0 * (bytesIn - bytesOut) / bytesIn;
+    }
+
+    /**
+     * @return Number of bytes read from the source
+     */
+    public synchronized long getBytesIn() {
+        return bytesIn;
+    }
+
+    /**
+     * @return Number of bytes passed on
+     */
+    public synchronized long getBytesOut() {
+        return bytesOut;
+    }
+
+    @Override
+    public int read() throws IOException {
+        throw new IOException("Cannot read a single byte of 16-bit audio");
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        while (pendingStart == pendingEnd) {
+            if (eof) {
+                return -1;
+            }
+            nextFrame();
+        }
+        int count = Math.min(len, pendingEnd - pendingStart);
+        System.arraycopy(pending, pendingStart, b, off, count);
+        pendingStart += count;
+        synchronized (this) {
+            bytesOut += count;
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Read and classify one frame, queueing whatever should be sent
+     */
+    private void nextFrame() throws IOException {
+        int length = 0;
+        while (length < frameBytes) {
+            int read = in.read(frame, length, frameBytes - length);
+            if (read < 0) {
+                eof = true;
+                break;
+            }
+            length += read;
+        }
+        length -= length % 2;
+        if (length == 0) {
+            return;
+        }
+        synchronized (this) {
+            bytesIn += length;
+        }
+        pendingStart = 0;
+        pendingEnd = 0;
+
+        if (isSpeech(length)) {
+            framesSinceSpeech = 0;
+        } else if (framesSinceSpeech != Integer.MAX_VALUE) {
+            framesSinceSpeech++;
+        }
+
+        if (framesSinceSpeech <= hangoverFrames) {
+            //Speech or hangover: flush any pre-roll first, then the frame itself
+            for (int i = 0; i < preRollCount; i++) {
+                queue(preRoll, ((preRollStart + i) % preRollFrames) * frameBytes, frameBytes);
+            }
+            preRollCount = 0;
+            queue(frame, 0, length);
+        } else if (++framesSinceSent >= keepaliveFrames) {
+            queue(frame, 0, length);
+        } else if (preRollFrames > 0 && length == frameBytes) {
+            int slot = (preRollStart + preRollCount) % preRollFrames;
+            System.arraycopy(frame, 0, preRoll, slot * frameBytes, frameBytes);
+            if (preRollCount < preRollFrames) {
+                preRollCount++;
+            } else {
+                preRollStart = (preRollStart + 1) % preRollFrames;
+            }
+        }
+    }
+
+    private void queue(byte[] source, int offset, int length) {
+        System.arraycopy(source, offset, pending, pendingEnd, length);
+        pendingEnd += length;
+        framesSinceSent = 0;
+    }
+
+    /**
+     * Classify a frame from its energy relative to the noise floor and its zero-crossing rate. The noise floor
+     * follows the energy of frames classified as silence. During speech it only rises, towards the minimum frame
+     * energy over the last {@value #NOISE_MINIMUM_WINDOWS} seconds; pauses between words keep that minimum down while
+     * someone talks, but noise that stays louder raises it once it has lasted the whole period.
+     */
+    private boolean isSpeech(int length) {
+        int samples = length / 2;
+        double rms = PcmKernels.rms(frame, 0, samples);
+        double levelDb = 20 * Math.log10(Math.max(rms, 1) / Short.MAX_VALUE);
+        double zeroCrossingRate = PcmKernels.zeroCrossings(frame, 0, samples) / (double) samples;
+
+        boolean speech = levelDb > noiseFloorDb + SPEECH_MARGIN_DB
+                || (levelDb > noiseFloorDb + FRICATIVE_MARGIN_DB && zeroCrossingRate > FRICATIVE_MIN_ZCR);
+        double recentMinimumDb = trackMinimum(levelDb);
+        if (!speech) {
+            noiseFloorDb += NOISE_FLOOR_ADAPTATION * (levelDb - noiseFloorDb);
+            noiseFloorDb = Math.max(noiseFloorDb, MIN_NOISE_FLOOR_DB);
+        } else if (recentMinimumDb > noiseFloorDb) {
+            noiseFloorDb += NOISE_FLOOR_ADAPTATION * (recentMinimumDb - noiseFloorDb);
+        }
+        return speech;
+    }
+
+    /**
+     * Record a frame's energy in the minimum statistics, kept per window of {@value #NOISE_MINIMUM_WINDOW_FRAMES}
+     * frames so the oldest window can be dropped as a whole
+     * @return Minimum frame energy over the full windows kept and the current one, or negative infinity until enough
+     * audio has been seen
+     */
+    private double trackMinimum(double levelDb) {
+        currentMinimumDb = Math.min(currentMinimumDb, levelDb);
+        if (++minimumWindowFrames == NOISE_MINIMUM_WINDOW_FRAMES) {
+            windowMinimaDb[minimumWindow] = currentMinimumDb;
+            minimumWindow = (minimumWindow + 1) % NOISE_MINIMUM_WINDOWS;
+            minimumWindowFrames = 0;
+            currentMinimumDb = Double.POSITIVE_INFINITY;
+        }
+        double minimumDb = currentMinimumDb;
+        for (double windowMinimumDb : windowMinimaDb) {
+            minimumDb = Math.min(minimumDb, windowMinimumDb);
+        }
+        return minimumDb;
+    }
+
+    /**
+     * AudioInputStream over the filter, so the filter can be found again for its statistics
+     */
+    private static final class FilteredStream extends AudioInputStream {
+        private final VoiceActivityFilter filter;
+
+        private FilteredStream(VoiceActivityFilter filter, AudioFormat format) {
+            super(filter, format, AudioSystem.NOT_SPECIFIED);
+            this.filter = filter;
+        }
+    }
+}
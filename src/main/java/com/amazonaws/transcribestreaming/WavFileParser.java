@@ -0,0 +1,223 @@
+/*
+ * Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.transcribestreaming;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * One-pass parser for RIFF/WAVE files. It reads the format from the "fmt " chunk, skips any other chunks (LIST,
+ * fact, cue and so on) and leaves the stream positioned at the start of the "data" chunk, so only PCM samples are
+ * sent to the service and the file is opened once.
+ *
+ * Files that are not RIFF/WAVE fall back to AudioSystem.getAudioInputStream, which strips the container of any
+ * other format Java Sound understands.
+ */
+public final class WavFileParser {
+
+    private static final int RIFF = 0x46464952; //"RIFF" read little-endian
+    private static final int WAVE = 0x45564157; //"WAVE"
+    private static final int FMT = 0x20746d66;  //"fmt "
+    private static final int DATA = 0x61746164; //"data"
+
+    private static final int WAVE_FORMAT_PCM = 0x0001;
+    private static final int WAVE_FORMAT_IEEE_FLOAT = 0x0003;
+    private static final int WAVE_FORMAT_ALAW = 0x0006;
+    private static final int WAVE_FORMAT_MULAW = 0x0007;
+    private static final int WAVE_FORMAT_EXTENSIBLE = 0xFFFE;
+
+    private static final long UNKNOWN_LENGTH = 0xFFFFFFFFL;
+
+    private WavFileParser() {
+    }
+
+    /**
+     * Open an audio file positioned at its first sample
+     * @param file WAV file, or any other audio file supported by Java Sound
+     * @return Stream of the audio samples only, with the format of the file
+     * @throws IOException if the file cannot be read
+     * @throws UnsupportedAudioFileException if the file is not a recognized audio file
+     */
+    public static AudioInputStream open(File file) throws IOException, UnsupportedAudioFileException {
+        InputStream in = new FileInputStream(file);
+        try {
+            Header header = readHeader(in);
+            if (header != null) {
+                long frames = header.getDataLength() < 0 ? AudioSystem.NOT_SPECIFIED
+                        : header.getDataLength() / AudioFormats.frameSize(header.getFormat());
+                return new AudioInputStream(in, header.getFormat(), frames);
+            }
+        } catch (IOException | UnsupportedAudioFileException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+        in.close();
+        return AudioSystem.getAudioInputStream(file);
+    }
+
+    /**
+     * Read a RIFF/WAVE header, leaving the stream positioned at the first byte of the "data" chunk
+     * @param in Stream positioned at the start of the file
+     * @return The parsed header, or null if the stream is not RIFF/WAVE
+     * @throws IOException if the stream cannot be read or ends before the "data" chunk
+     * @throws UnsupportedAudioFileException if the WAV file uses an encoding that cannot be streamed
+     */
+    public static Header readHeader(InputStream in) throws IOException, UnsupportedAudioFileException {
+        byte[] scratch = new byte[40];
+        readFully(in, scratch, 12);
+        if (intLE(scratch, 0) != RIFF || intLE(scratch, 8) != WAVE) {
+            return null;
+        }
+        long offset = 12;
+        AudioFormat format = null;
+        while (true) {
+            readFully(in, scratch, 8);
+            offset += 8;
+            int chunkId = intLE(scratch, 0);
+            long chunkSize = intLE(scratch, 4) & 0xFFFFFFFFL;
+            if (chunkId == DATA) {
+                if (format == null) {
+                    throw new UnsupportedAudioFileException("WAV data chunk found before fmt chunk");
+                }
+                long dataLength = chunkSize == UNKNOWN_LENGTH || chunkSize == 0 ? -1 : chunkSize;
+                return new Header(format, offset, dataLength);
+            }
+            long toSkip = chunkSize + (chunkSize & 1); //chunks are padded to an even size
+            if (chunkId == FMT) {
+                int fmtLength = (int) Math.min(chunkSize, scratch.length);
+                readFully(in, scratch, fmtLength);
+                format = parseFormat(scratch, fmtLength);
+                toSkip -= fmtLength;
+            }
+            skipFully(in, toSkip);
+            offset += chunkSize + (chunkSize & 1);
+        }
+    }
+
+    private static AudioFormat parseFormat(byte[] fmt, int length) throws UnsupportedAudioFileException {
+        if (length < 16) {
+            throw new UnsupportedAudioFileException("WAV fmt chunk too short");
+        }
+        int formatTag = shortLE(fmt, 0);
+        int channels = shortLE(fmt, 2);
+        int sampleRate = intLE(fmt, 4);
+        int blockAlign = shortLE(fmt, 12);
+        int bitsPerSample = shortLE(fmt, 14);
+        if (formatTag == WAVE_FORMAT_EXTENSIBLE && length >= 26) {
+            //The first two bytes of the sub-format GUID hold the actual format tag
+            formatTag = shortLE(fmt, 24);
+        }
+
+        AudioFormat.Encoding encoding;
+        switch (formatTag) {
+            case WAVE_FORMAT_PCM:
+                encoding = bitsPerSample <= 8 ? AudioFormat.Encoding.PCM_UNSIGNED : AudioFormat.Encoding.PCM_SIGNED;
+                break;
+            case WAVE_FORMAT_IEEE_FLOAT:
+                encoding = AudioFormat.Encoding.PCM_FLOAT;
+                break;
+            case WAVE_FORMAT_ALAW:
+                encoding = AudioFormat.Encoding.ALAW;
+                break;
+            case WAVE_FORMAT_MULAW:
+                encoding = AudioFormat.Encoding.ULAW;
+                break;
+            default:
+                throw new UnsupportedAudioFileException("Unsupported WAV format tag: 0x" + Integer.toHexString(formatTag));
+        }
+        if (channels <= 0 || sampleRate <= 0 || blockAlign <= 0) {
+            throw new UnsupportedAudioFileException("Invalid WAV fmt chunk");
+        }
+        return new AudioFormat(encoding, sampleRate, bitsPerSample, channels, blockAlign, sampleRate, false);
+    }
+
+    private static void readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int n = in.read(buffer, read, length - read);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of WAV header");
+            }
+            read += n;
+        }
+    }
+
+    private static void skipFully(InputStream in, long length) throws IOException {
+        while (length > 0) {
+            long skipped = in.skip(length);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("Unexpected end of WAV header");
+                }
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+
+    private static int intLE(byte[] b, int offset) {
+        return (b[offset] & 0xFF) | (b[offset + 1] & 0xFF) << 8 | (b[offset + 2] & 0xFF) << 16 | b[offset + 3] << 24;
+    }
+
+    private static int shortLE(byte[] b, int offset) {
+        return (b[offset] & 0xFF) | (b[offset + 1] & 0xFF) << 8;
+    }
+
+    /**
+     * Format and location of the samples in a WAV file
+     */
+    public static final class Header {
+        private final AudioFormat format;
+        private final long dataOffset;
+        private final long dataLength;
+
+        private Header(AudioFormat format, long dataOffset, long dataLength) {
+            this.format = format;
+            this.dataOffset = dataOffset;
+            this.dataLength = dataLength;
+        }
+
+        /**
+         * @return Format of the samples
+         */
+        public AudioFormat getFormat() {
+            return format;
+        }
+
+        /**
+         * @return Offset of the first sample from the start of the file, in bytes
+         */
+        public long getDataOffset() {
+            return dataOffset;
+        }
+
+        /**
+         * @return Length of the sample data in bytes, or -1 if the header does not say (e.g. a live recording)
+         */
+        public long getDataLength() {
+            return dataLength;
+        }
+    }
+}
@@ -32,6 +32,8 @@ import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTran
 import software.amazon.awssdk.services.transcribestreaming.model.TranscriptEvent;
 import software.amazon.awssdk.services.transcribestreaming.model.TranscriptResultStream;
 
+import javax.sound.sampled.LineUnavailableException;
+
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
@@ -47,6 +49,8 @@ import java.util.concurrent.ExecutionException;
  */
 public class WindowController {
 
+    private static final int MICROPHONE_PRE_ROLL_MS = 2000;
+
     private TranscribeStreamingClientWrapper client;
     private TranscribeStreamingSynchronousClient synchronousClient;
     private TextArea outputTextArea;
@@ -60,6 +64,11 @@ public class WindowController {
 
     public WindowController(Stage primaryStage) {
         client = new TranscribeStreamingClientWrapper();
+        try {
+            client.openMicrophone(MICROPHONE_PRE_ROLL_MS);
+        } catch (LineUnavailableException e) {
+            System.out.println("Microphone unavailable, it will be opened when transcription starts: " + e);
+        }
         synchronousClient = new TranscribeStreamingSynchronousClient(TranscribeStreamingClientWrapper.getClient());
         this.primaryStage = primaryStage;
         initializeWindow(primaryStage);
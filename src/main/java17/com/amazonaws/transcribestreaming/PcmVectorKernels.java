@@ -0,0 +1,195 @@
+/*
+ * Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.transcribestreaming;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteOrder;
+
+/**
+ * Vector API versions of the busiest PcmKernels, loaded from the multi-release jar on Java 17 and later. They are only
+ * used when the jdk.incubator.vector module has been added to the runtime, e.g. with
+ * {@code --add-modules jdk.incubator.vector}, and can be turned off with the system property
+ * {@value #VECTOR_PROPERTY} set to false. Otherwise, or if the incubating API does not link on this JDK, PcmKernels
+ * keeps using its scalar loops.
+ *
+ * Samples are loaded as bytes and reinterpreted as shorts in the platform's byte order, so the kernels are only
+ * enabled on little-endian platforms. Integer results are identical to the scalar kernels; the dot product sums in a
+ * different order, so its float result may differ in the last bits.
+ */
+final class PcmVectorKernels {
+
+    private static final String VECTOR_PROPERTY = "transcribestreaming.vector";
+
+    /**
+     * True if the kernels below can be called. Not a compile-time constant, so callers read the value of whichever
+     * version of this class the runtime loaded.
+     */
+    static final boolean AVAILABLE = probe();
+
+    private PcmVectorKernels() {
+    }
+
+    /**
+     * Run every kernel once, so any part of the incubating API missing on this JDK fails here rather than later
+     */
+    private static boolean probe() {
+        if (!Boolean.parseBoolean(System.getProperty(VECTOR_PROPERTY, "true"))
+                || ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN
+                || !ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            return false;
+        }
+        try {
+            int samples = 4 * Kernels.INTS.length() + 1;
+            byte[] pcm = new byte[2 * samples];
+            int[] sums = new int[samples];
+            float[] taps = new float[4 * Kernels.FLOATS.length() + 1];
+            Kernels.accumulate(pcm, 0, samples, sums);
+            Kernels.saturate(sums, samples, pcm, 0);
+            return Kernels.sumOfSquares(pcm, 0, samples) == 0 && Kernels.peak(pcm, 0, samples) == 0
+                    && Kernels.dot(taps, 0, taps, 0, taps.length) == 0;
+        } catch (LinkageError | RuntimeException e) {
+            return false;
+        }
+    }
+
+    static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        return Kernels.dot(a, aOffset, b, bOffset, length);
+    }
+
+    static long sumOfSquares(byte[] pcm, int offset, int samples) {
+        return Kernels.sumOfSquares(pcm, offset, samples);
+    }
+
+    static int peak(byte[] pcm, int offset, int samples) {
+        return Kernels.peak(pcm, offset, samples);
+    }
+
+    static void accumulate(byte[] pcm, int offset, int samples, int[] sums) {
+        Kernels.accumulate(pcm, offset, samples, sums);
+    }
+
+    static void saturate(int[] sums, int samples, byte[] pcm, int offset) {
+        Kernels.saturate(sums, samples, pcm, offset);
+    }
+
+    /**
+     * The kernels themselves, in a class of their own so that failing to link the incubating API only fails this
+     * class and leaves the probe able to report it
+     */
+    private static final class Kernels {
+        private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+        private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+        //Longs of the same shape as the ints, holding half as many lanes
+        private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+        //Bytes of half the shape of the ints: two per int lane, one sample each
+        private static final VectorSpecies<Byte> SAMPLE_BYTES =
+                VectorSpecies.of(byte.class, VectorShape.forBitSize(INTS.vectorBitSize() / 2));
+        private static final VectorSpecies<Short> SAMPLES =
+                VectorSpecies.of(short.class, VectorShape.forBitSize(INTS.vectorBitSize() / 2));
+
+        private static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+            FloatVector acc = FloatVector.zero(FLOATS);
+            int i = 0;
+            for (int bound = FLOATS.loopBound(length); i < bound; i += FLOATS.length()) {
+                FloatVector va = FloatVector.fromArray(FLOATS, a, aOffset + i);
+                FloatVector vb = FloatVector.fromArray(FLOATS, b, bOffset + i);
+                acc = acc.add(va.mul(vb));
+            }
+            float sum = acc.reduceLanes(VectorOperators.ADD);
+            for (; i < length; i++) {
+                sum += a[aOffset + i] * b[bOffset + i];
+            }
+            return sum;
+        }
+
+        private static ShortVector samples(byte[] pcm, int pos) {
+            return ByteVector.fromArray(SAMPLE_BYTES, pcm, pos).reinterpretAsShorts();
+        }
+
+        private static IntVector ints(byte[] pcm, int pos) {
+            return (IntVector) samples(pcm, pos).convertShape(VectorOperators.S2I, INTS, 0);
+        }
+
+        private static long sumOfSquares(byte[] pcm, int offset, int samples) {
+            //Squares reach 2^30, so they are summed as longs
+            LongVector acc = LongVector.zero(LONGS);
+            int i = 0;
+            for (int bound = INTS.loopBound(samples); i < bound; i += INTS.length()) {
+                IntVector v = ints(pcm, offset + 2 * i);
+                IntVector squares = v.mul(v);
+                acc = acc.add(squares.convertShape(VectorOperators.I2L, LONGS, 0))
+                        .add(squares.convertShape(VectorOperators.I2L, LONGS, 1));
+            }
+            long sum = acc.reduceLanes(VectorOperators.ADD);
+            for (; i < samples; i++) {
+                int sample = PcmKernels.sample(pcm, offset + 2 * i);
+                sum += sample * sample;
+            }
+            return sum;
+        }
+
+        private static int peak(byte[] pcm, int offset, int samples) {
+            //The absolute value of -32768 does not fit a short, so track the extremes instead
+            ShortVector max = ShortVector.zero(SAMPLES);
+            ShortVector min = ShortVector.zero(SAMPLES);
+            int i = 0;
+            for (int bound = SAMPLES.loopBound(samples); i < bound; i += SAMPLES.length()) {
+                ShortVector v = samples(pcm, offset + 2 * i);
+                max = max.max(v);
+                min = min.min(v);
+            }
+            int peak = Math.max(max.reduceLanes(VectorOperators.MAX), -min.reduceLanes(VectorOperators.MIN));
+            for (; i < samples; i++) {
+                peak = Math.max(peak, Math.abs(PcmKernels.sample(pcm, offset + 2 * i)));
+            }
+            return peak;
+        }
+
+        private static void accumulate(byte[] pcm, int offset, int samples, int[] sums) {
+            int i = 0;
+            for (int bound = INTS.loopBound(samples); i < bound; i += INTS.length()) {
+                IntVector.fromArray(INTS, sums, i).add(ints(pcm, offset + 2 * i)).intoArray(sums, i);
+            }
+            for (; i < samples; i++) {
+                sums[i] += PcmKernels.sample(pcm, offset + 2 * i);
+            }
+        }
+
+        private static void saturate(int[] sums, int samples, byte[] pcm, int offset) {
+            int i = 0;
+            for (int bound = INTS.loopBound(samples); i < bound; i += INTS.length()) {
+                IntVector clamped = IntVector.fromArray(INTS, sums, i).max(Short.MIN_VALUE).min(Short.MAX_VALUE);
+                ((ShortVector) clamped.convertShape(VectorOperators.I2S, SAMPLES, 0)).reinterpretAsBytes()
+                        .intoArray(pcm, offset + 2 * i);
+            }
+            for (; i < samples; i++) {
+                int value = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sums[i]));
+                pcm[offset + 2 * i] = (byte) value;
+                pcm[offset + 2 * i + 1] = (byte) (value >> 8);
+            }
+        }
+    }
+}